@@ -0,0 +1,188 @@
+package misc;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter shared by all benchmark threads (see JMHSample_22_FalseSharing), incremented or read:
+ * `reads` out of 100 ops of every thread read the counter, the others increment it.
+ *
+ *   atomic   AtomicLong.incrementAndGet
+ *   adder    LongAdder
+ *   striped  an AtomicLongArray of stripes, one cache line (16 longs) apart, picked by thread;
+ *            a read sums the stripes
+ *   updater  AtomicLongFieldUpdater.getAndAdd on a volatile field, what VarHandle.getAndAdd does
+ *            (this project runs on JDK 8)
+ *   release  a padded cell per thread, incremented only by its thread with lazySet (a release
+ *            store, like VarHandle.setRelease) instead of an atomic add; a read sums the cells
+ *   local    a plain count per thread, added to a shared AtomicLong every FLUSH increments; a read
+ *            only sees the flushed increments
+ *
+ * Run it for every number of threads:
+ *
+ * for t in 1 2 4 8; do sbt "jmh:run -f 1 -i 5 -wi 5 -t $t misc.Counters"; done
+ *
+ * With -t 4 on a single core machine (the threads never run at the same time, so this only shows
+ * the cost of the operations themselves, not the contention):
+ *
+ * [info] Benchmark       (counter)  (reads)   Mode  Cnt    Score     Error   Units
+ * [info] Counters.mixed    atomic        0  thrpt    5  307.805 ±  78.968  ops/us
+ * [info] Counters.mixed    atomic       10  thrpt    5  207.349 ± 103.926  ops/us
+ * [info] Counters.mixed    atomic       50  thrpt    5  331.721 ± 124.354  ops/us
+ * [info] Counters.mixed    atomic       90  thrpt    5  356.005 ± 214.671  ops/us
+ * [info] Counters.mixed     adder        0  thrpt    5  134.352 ±  78.183  ops/us
+ * [info] Counters.mixed     adder       10  thrpt    5  110.392 ±  34.298  ops/us
+ * [info] Counters.mixed     adder       50  thrpt    5  136.118 ±   9.106  ops/us
+ * [info] Counters.mixed     adder       90  thrpt    5  132.713 ±   3.506  ops/us
+ * [info] Counters.mixed   striped        0  thrpt    5  181.859 ±  10.058  ops/us
+ * [info] Counters.mixed   striped       10  thrpt    5  185.735 ± 202.355  ops/us
+ * [info] Counters.mixed   striped       50  thrpt    5  132.259 ±  32.720  ops/us
+ * [info] Counters.mixed   striped       90  thrpt    5   89.948 ±  35.630  ops/us
+ * [info] Counters.mixed   updater        0  thrpt    5  190.015 ±  10.793  ops/us
+ * [info] Counters.mixed   updater       10  thrpt    5  215.787 ±  84.802  ops/us
+ * [info] Counters.mixed   updater       50  thrpt    5  205.153 ±   6.053  ops/us
+ * [info] Counters.mixed   updater       90  thrpt    5  356.321 ± 224.282  ops/us
+ * [info] Counters.mixed   release        0  thrpt    5  240.608 ± 146.590  ops/us
+ * [info] Counters.mixed   release       10  thrpt    5  245.474 ± 101.029  ops/us
+ * [info] Counters.mixed   release       50  thrpt    5  191.989 ±  29.369  ops/us
+ * [info] Counters.mixed   release       90  thrpt    5  142.097 ±  33.263  ops/us
+ * [info] Counters.mixed     local        0  thrpt    5  294.994 ±  96.556  ops/us
+ * [info] Counters.mixed     local       10  thrpt    5  263.607 ± 236.240  ops/us
+ * [info] Counters.mixed     local       50  thrpt    5  343.683 ± 156.978  ops/us
+ * [info] Counters.mixed     local       90  thrpt    5  307.488 ± 274.428  ops/us
+ *
+ * Without contention the single AtomicLong is as fast as anything else, the errors are larger than
+ * the differences. Only the counters that sum their cells on a read get slower with reads:
+ * striped from 182 to 90 ops/us and release from 241 to 142 at 90% reads; the adder only uses its
+ * base value as long as there is no contention and stays at about 130.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Counters {
+
+    static final int FLUSH = 1024;
+
+    // the distance of two cells in an AtomicLongArray, 128 bytes
+    static final int PAD = 16;
+
+    @Param({"atomic", "adder", "striped", "updater", "release", "local"})
+    String counter;
+
+    @Param({"0", "10", "50", "90"})
+    int reads;
+
+    Counter c;
+
+    @Setup
+    public void setup(BenchmarkParams params) {
+        switch (counter) {
+            case "atomic": c = new Atomic(); break;
+            case "adder": c = new Adder(); break;
+            case "striped": c = new Striped(); break;
+            case "updater": c = new Updater(); break;
+            case "release": c = new Release(params.getThreads()); break;
+            case "local": c = new Local(); break;
+            default: throw new IllegalArgumentException(counter);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+        int op;
+        long pending;
+
+        @Setup
+        public void setup(ThreadParams params) {
+            index = params.getThreadIndex();
+        }
+    }
+
+    @Benchmark
+    public long mixed(ThreadState t) {
+        if (++t.op == 100) t.op = 0;
+        if (t.op < reads) return c.get();
+        c.increment(t);
+        return 0;
+    }
+
+    static abstract class Counter {
+        abstract void increment(ThreadState t);
+        abstract long get();
+    }
+
+    static final class Atomic extends Counter {
+        final AtomicLong value = new AtomicLong();
+        void increment(ThreadState t) { value.incrementAndGet(); }
+        long get() { return value.get(); }
+    }
+
+    static final class Adder extends Counter {
+        final LongAdder value = new LongAdder();
+        void increment(ThreadState t) { value.increment(); }
+        long get() { return value.sum(); }
+    }
+
+    static final class Striped extends Counter {
+        final int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2;
+        final AtomicLongArray cells = new AtomicLongArray(stripes * PAD);
+
+        void increment(ThreadState t) { cells.getAndIncrement((t.index & (stripes - 1)) * PAD); }
+
+        long get() {
+            long sum = 0;
+            for (int i = 0; i < stripes; i++) sum += cells.get(i * PAD);
+            return sum;
+        }
+    }
+
+    static final class Updater extends Counter {
+        static final AtomicLongFieldUpdater<Updater> VALUE = AtomicLongFieldUpdater.newUpdater(Updater.class, "value");
+        volatile long value;
+        void increment(ThreadState t) { VALUE.getAndAdd(this, 1); }
+        long get() { return value; }
+    }
+
+    /** A cell for each of the `threads` benchmark threads. */
+    static final class Release extends Counter {
+        final int threads;
+        final AtomicLongArray cells;
+
+        Release(int threads) {
+            this.threads = threads;
+            this.cells = new AtomicLongArray(threads * PAD);
+        }
+
+        void increment(ThreadState t) {
+            int i = t.index * PAD;
+            cells.lazySet(i, cells.get(i) + 1);
+        }
+
+        long get() {
+            long sum = 0;
+            for (int i = threads - 1; i >= 0; i--) sum += cells.get(i * PAD);
+            return sum;
+        }
+    }
+
+    static final class Local extends Counter {
+        final AtomicLong value = new AtomicLong();
+
+        void increment(ThreadState t) {
+            if (++t.pending == FLUSH) {
+                value.addAndGet(FLUSH);
+                t.pending = 0;
+            }
+        }
+
+        long get() { return value.get(); }
+    }
+}
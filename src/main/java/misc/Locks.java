@@ -0,0 +1,264 @@
+package misc;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Threads reading and writing data guarded by a lock, with synchronized iterations (see
+ * JMHSample_17_SyncIterations, on by default) so that all threads contend for the whole
+ * measurement. `reads` out of 100 ops of every thread read, the others write; both hold the lock
+ * for `tokens` of Blackhole.consumeCPU (see JMHSample_21_ConsumeCPU).
+ *
+ *   synchronized  a monitor
+ *   unfair        ReentrantLock
+ *   fair          ReentrantLock(true), the longest waiting thread gets the lock
+ *   stamped       StampedLock, reads optimistic and retried under the read lock if a write came between
+ *   readWrite     ReentrantReadWriteLock
+ *   spin          test-and-test-and-set on an AtomicBoolean
+ *   backoff       like spin, with a random, exponentially growing pause after a failed attempt
+ *
+ * The score is the throughput of all threads. After every iteration the ops of each thread are
+ * printed, with min / max: 1 when every thread got the same share, near 0 when a thread starved.
+ *
+ * Run it for every number of threads:
+ *
+ * for t in 1 2 4 8; do sbt "jmh:run -f 1 -i 5 -wi 5 -t $t misc.Locks"; done
+ *
+ * A short run (-wi 1 -i 2, 1 s iterations) with the default 4 threads on a single core machine:
+ *
+ * [info] Benchmark          (lock)  (reads)  (tokens)   Mode  Cnt  Score   Units
+ * [info] Locks.mixed  synchronized       50       100  thrpt    2  5.228  ops/us
+ * [info] Locks.mixed        unfair       50       100  thrpt    2  5.110  ops/us
+ * [info] Locks.mixed          fair       50       100  thrpt    2  0.301  ops/us
+ * [info] Locks.mixed       stamped       50       100  thrpt    2  4.616  ops/us
+ * [info] Locks.mixed     readWrite       50       100  thrpt    2  4.720  ops/us
+ * [info] Locks.mixed          spin       50       100  thrpt    2  1.824  ops/us
+ * [info] Locks.mixed       backoff       50       100  thrpt    2  2.234  ops/us
+ *
+ * ops per thread [1259984, 1274120, 1283016, 1293776], min / max 0.974   (synchronized)
+ * ops per thread [70749, 71522, 74276, 74552], min / max 0.949           (fair)
+ * ops per thread [0, 0, 1, 1310527], min / max 0.000                     (spin)
+ *
+ * The fair lock is as fair as the others but 17 times slower: it hands the lock to a waiting thread
+ * that first has to be scheduled. A thread preempted while holding a spin lock lets the others spin
+ * through their time slices, and the thread that gets the lock back keeps it: the other threads
+ * starve, with or without backoff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class Locks {
+
+    @Param({"synchronized", "unfair", "fair", "stamped", "readWrite", "spin", "backoff"})
+    String lock;
+
+    @Param({"0", "50", "90"})
+    int reads;
+
+    @Param({"10", "100"})
+    int tokens;
+
+    Guard guard;
+
+    final Queue<ThreadState> threads = new ConcurrentLinkedQueue<>();
+
+    @Setup
+    public void setup() {
+        switch (lock) {
+            case "synchronized": guard = new Synchronized(); break;
+            case "unfair": guard = new Reentrant(false); break;
+            case "fair": guard = new Reentrant(true); break;
+            case "stamped": guard = new Stamped(); break;
+            case "readWrite": guard = new ReadWrite(); break;
+            case "spin": guard = new Spin(false); break;
+            case "backoff": guard = new Spin(true); break;
+            default: throw new IllegalArgumentException(lock);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void fairness() {
+        long[] ops = new long[threads.size()];
+        int i = 0;
+        for (ThreadState t : threads) {
+            ops[i++] = t.measured;
+            t.measured = 0;
+        }
+        Arrays.sort(ops);
+        double share = ops[ops.length - 1] == 0 ? 1 : (double) ops[0] / ops[ops.length - 1];
+        System.out.printf("ops per thread %s, min / max %.3f%n", Arrays.toString(ops), share);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int op;
+        long measured;
+
+        @Setup
+        public void setup(Locks b) {
+            b.threads.add(this);
+        }
+    }
+
+    @Benchmark
+    public long mixed(ThreadState t, Control control) {
+        if (control.startMeasurement && !control.stopMeasurement) t.measured++;
+        if (++t.op == 100) t.op = 0;
+        if (t.op < reads) return guard.read(tokens);
+        guard.write(tokens);
+        return 0;
+    }
+
+    static abstract class Guard {
+        // changed only under the lock
+        long value;
+
+        abstract long read(int tokens);
+        abstract void write(int tokens);
+    }
+
+    static final class Synchronized extends Guard {
+        synchronized long read(int tokens) {
+            Blackhole.consumeCPU(tokens);
+            return value;
+        }
+
+        synchronized void write(int tokens) {
+            Blackhole.consumeCPU(tokens);
+            value++;
+        }
+    }
+
+    static final class Reentrant extends Guard {
+        final ReentrantLock lock;
+
+        Reentrant(boolean fair) { lock = new ReentrantLock(fair); }
+
+        long read(int tokens) {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void write(int tokens) {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                value++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static final class Stamped extends Guard {
+        final StampedLock lock = new StampedLock();
+
+        long read(int tokens) {
+            long stamp = lock.tryOptimisticRead();
+            Blackhole.consumeCPU(tokens);
+            long v = value;
+            if (lock.validate(stamp)) return v;
+            stamp = lock.readLock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                return value;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void write(int tokens) {
+            long stamp = lock.writeLock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                value++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    static final class ReadWrite extends Guard {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        long read(int tokens) {
+            lock.readLock().lock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                return value;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void write(int tokens) {
+            lock.writeLock().lock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                value++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /** Reads take the lock like writes, a spin lock has no shared mode. */
+    static final class Spin extends Guard {
+        static final int MIN_BACKOFF = 16;
+        static final int MAX_BACKOFF = 4096;
+
+        final AtomicBoolean locked = new AtomicBoolean();
+        final boolean backoff;
+
+        Spin(boolean backoff) { this.backoff = backoff; }
+
+        void lock() {
+            int limit = MIN_BACKOFF;
+            while (true) {
+                while (locked.get()) ;
+                if (locked.compareAndSet(false, true)) return;
+                if (backoff) {
+                    Blackhole.consumeCPU(ThreadLocalRandom.current().nextInt(limit));
+                    limit = Math.min(2 * limit, MAX_BACKOFF);
+                }
+            }
+        }
+
+        long read(int tokens) {
+            lock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                return value;
+            } finally {
+                locked.set(false);
+            }
+        }
+
+        void write(int tokens) {
+            lock();
+            try {
+                Blackhole.consumeCPU(tokens);
+                value++;
+            } finally {
+                locked.set(false);
+            }
+        }
+    }
+}
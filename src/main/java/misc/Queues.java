@@ -0,0 +1,569 @@
+package misc;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Handing elements from producer to consumer threads through a bounded queue, with the groups of
+ * JMHSample_15_Asymmetric. Set the producers and consumers of a group with -tg (producers first).
+ *
+ *   spsc        ring buffer for one producer and one consumer, padded head and tail indices
+ *   mpsc        ring buffer, producers claim slots with a CAS on the tail
+ *   spmc        ring buffer, consumers claim slots with a CAS on the head
+ *   mpmc        ring buffer with a sequence number per slot (Vyukov)
+ *   mpscLinked  linked list, producers swap the tail (Vyukov); bounded by a shared count
+ *   clq         ConcurrentLinkedQueue (Michael-Scott); bounded by a shared count
+ *   abq         ArrayBlockingQueue, offer and poll
+ *   ltq         LinkedTransferQueue, offer and poll; bounded by a shared count
+ *
+ * The groups:
+ *
+ *   handoff    producers offer, consumers poll one element per op
+ *   batch      producers offer, consumers drain up to `batch` elements per op
+ *   roundTrip  one thread sends an element through the queue and waits for it to come back
+ *              through another one, sampled: the percentiles of the round trip latency
+ *
+ * In handoff and batch an op ends with a successful offer or poll: the score of the offer and poll
+ * methods is the number of elements handed over per us, batchPoll counts the drains that got at
+ * least one element and the `polls` counter the elements. An op keeps trying while the queue is
+ * full or empty, the `fullOffers` and `emptyPolls` counters are the failed attempts.
+ *
+ * sbt "jmh:run -f 1 -i 5 -wi 5 -tg 1,1 misc.Queues"
+ * sbt "jmh:run -f 1 -i 5 -wi 5 -tg 3,1 -p kind=mpsc,mpmc,mpscLinked,clq,abq,ltq misc.Queues.handoff"
+ *
+ * A queue kind that does not support the thread groups fails in the setup; in a round trip the
+ * second thread produces into the queue back, so that has to support the groups swapped as well.
+ *
+ * The first command on a single core machine:
+ *
+ * [info] Benchmark                  (batch)  (capacity)      (kind)    Mode   Cnt        Score        Error   Units
+ * [info] Queues.batch                    32        1024        spsc   thrpt     5        0.129 ±      0.050  ops/us
+ * [info] Queues.batch:batchOffer         32        1024        spsc   thrpt     5        0.125 ±      0.048  ops/us
+ * [info] Queues.batch:batchPoll          32        1024        spsc   thrpt     5        0.004 ±      0.002  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024        spsc   thrpt     5      154.264 ±     75.479  ops/us
+ * [info] Queues.batch:fullOffers         32        1024        spsc   thrpt     5      202.360 ±     89.729  ops/us
+ * [info] Queues.batch:polls              32        1024        spsc   thrpt     5        0.126 ±      0.050  ops/us
+ * [info] Queues.batch                    32        1024        mpsc   thrpt     5        0.127 ±      0.073  ops/us
+ * [info] Queues.batch:batchOffer         32        1024        mpsc   thrpt     5        0.123 ±      0.071  ops/us
+ * [info] Queues.batch:batchPoll          32        1024        mpsc   thrpt     5        0.004 ±      0.002  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024        mpsc   thrpt     5      115.566 ±    123.986  ops/us
+ * [info] Queues.batch:fullOffers         32        1024        mpsc   thrpt     5      178.658 ±    156.499  ops/us
+ * [info] Queues.batch:polls              32        1024        mpsc   thrpt     5        0.124 ±      0.071  ops/us
+ * [info] Queues.batch                    32        1024        spmc   thrpt     5        0.135 ±      0.024  ops/us
+ * [info] Queues.batch:batchOffer         32        1024        spmc   thrpt     5        0.131 ±      0.023  ops/us
+ * [info] Queues.batch:batchPoll          32        1024        spmc   thrpt     5        0.004 ±      0.001  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024        spmc   thrpt     5      196.127 ±    139.432  ops/us
+ * [info] Queues.batch:fullOffers         32        1024        spmc   thrpt     5      214.100 ±    126.921  ops/us
+ * [info] Queues.batch:polls              32        1024        spmc   thrpt     5        0.132 ±      0.022  ops/us
+ * [info] Queues.batch                    32        1024        mpmc   thrpt     5        0.108 ±      0.081  ops/us
+ * [info] Queues.batch:batchOffer         32        1024        mpmc   thrpt     5        0.105 ±      0.079  ops/us
+ * [info] Queues.batch:batchPoll          32        1024        mpmc   thrpt     5        0.003 ±      0.002  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024        mpmc   thrpt     5      117.385 ±    166.113  ops/us
+ * [info] Queues.batch:fullOffers         32        1024        mpmc   thrpt     5      131.480 ±    200.282  ops/us
+ * [info] Queues.batch:polls              32        1024        mpmc   thrpt     5        0.106 ±      0.078  ops/us
+ * [info] Queues.batch                    32        1024  mpscLinked   thrpt     5        0.121 ±      0.072  ops/us
+ * [info] Queues.batch:batchOffer         32        1024  mpscLinked   thrpt     5        0.118 ±      0.070  ops/us
+ * [info] Queues.batch:batchPoll          32        1024  mpscLinked   thrpt     5        0.004 ±      0.002  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024  mpscLinked   thrpt     5      214.345 ±    166.541  ops/us
+ * [info] Queues.batch:fullOffers         32        1024  mpscLinked   thrpt     5      217.770 ±    169.015  ops/us
+ * [info] Queues.batch:polls              32        1024  mpscLinked   thrpt     5        0.118 ±      0.070  ops/us
+ * [info] Queues.batch                    32        1024         clq   thrpt     5        0.121 ±      0.082  ops/us
+ * [info] Queues.batch:batchOffer         32        1024         clq   thrpt     5        0.117 ±      0.079  ops/us
+ * [info] Queues.batch:batchPoll          32        1024         clq   thrpt     5        0.004 ±      0.002  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024         clq   thrpt     5      165.028 ±    123.044  ops/us
+ * [info] Queues.batch:fullOffers         32        1024         clq   thrpt     5      232.436 ±    181.121  ops/us
+ * [info] Queues.batch:polls              32        1024         clq   thrpt     5        0.118 ±      0.079  ops/us
+ * [info] Queues.batch                    32        1024         abq   thrpt     5        0.103 ±      0.140  ops/us
+ * [info] Queues.batch:batchOffer         32        1024         abq   thrpt     5        0.100 ±      0.136  ops/us
+ * [info] Queues.batch:batchPoll          32        1024         abq   thrpt     5        0.003 ±      0.004  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024         abq   thrpt     5       84.072 ±     53.432  ops/us
+ * [info] Queues.batch:fullOffers         32        1024         abq   thrpt     5       86.085 ±     70.806  ops/us
+ * [info] Queues.batch:polls              32        1024         abq   thrpt     5        0.101 ±      0.136  ops/us
+ * [info] Queues.batch                    32        1024         ltq   thrpt     5        0.129 ±      0.051  ops/us
+ * [info] Queues.batch:batchOffer         32        1024         ltq   thrpt     5        0.125 ±      0.050  ops/us
+ * [info] Queues.batch:batchPoll          32        1024         ltq   thrpt     5        0.004 ±      0.002  ops/us
+ * [info] Queues.batch:emptyPolls         32        1024         ltq   thrpt     5       87.765 ±     55.408  ops/us
+ * [info] Queues.batch:fullOffers         32        1024         ltq   thrpt     5      196.973 ±    123.981  ops/us
+ * [info] Queues.batch:polls              32        1024         ltq   thrpt     5        0.125 ±      0.049  ops/us
+ * [info] Queues.handoff                  32        1024        spsc   thrpt     5        0.214 ±      0.173  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024        spsc   thrpt     5      141.630 ±    105.371  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024        spsc   thrpt     5      167.186 ±    125.786  ops/us
+ * [info] Queues.handoff:offer            32        1024        spsc   thrpt     5        0.107 ±      0.087  ops/us
+ * [info] Queues.handoff:poll             32        1024        spsc   thrpt     5        0.107 ±      0.087  ops/us
+ * [info] Queues.handoff:polls            32        1024        spsc   thrpt     5        0.107 ±      0.086  ops/us
+ * [info] Queues.handoff                  32        1024        mpsc   thrpt     5        0.250 ±      0.093  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024        mpsc   thrpt     5      158.725 ±     56.139  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024        mpsc   thrpt     5      201.312 ±     71.871  ops/us
+ * [info] Queues.handoff:offer            32        1024        mpsc   thrpt     5        0.125 ±      0.047  ops/us
+ * [info] Queues.handoff:poll             32        1024        mpsc   thrpt     5        0.125 ±      0.046  ops/us
+ * [info] Queues.handoff:polls            32        1024        mpsc   thrpt     5        0.125 ±      0.045  ops/us
+ * [info] Queues.handoff                  32        1024        spmc   thrpt     5        0.246 ±      0.094  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024        spmc   thrpt     5      158.576 ±     49.327  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024        spmc   thrpt     5      189.323 ±     56.462  ops/us
+ * [info] Queues.handoff:offer            32        1024        spmc   thrpt     5        0.123 ±      0.048  ops/us
+ * [info] Queues.handoff:poll             32        1024        spmc   thrpt     5        0.123 ±      0.047  ops/us
+ * [info] Queues.handoff:polls            32        1024        spmc   thrpt     5        0.123 ±      0.047  ops/us
+ * [info] Queues.handoff                  32        1024        mpmc   thrpt     5        0.228 ±      0.154  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024        mpmc   thrpt     5      130.521 ±     78.822  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024        mpmc   thrpt     5      138.254 ±     86.513  ops/us
+ * [info] Queues.handoff:offer            32        1024        mpmc   thrpt     5        0.114 ±      0.076  ops/us
+ * [info] Queues.handoff:poll             32        1024        mpmc   thrpt     5        0.114 ±      0.078  ops/us
+ * [info] Queues.handoff:polls            32        1024        mpmc   thrpt     5        0.114 ±      0.079  ops/us
+ * [info] Queues.handoff                  32        1024  mpscLinked   thrpt     5        0.244 ±      0.113  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024  mpscLinked   thrpt     5      233.395 ±    107.540  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024  mpscLinked   thrpt     5      226.597 ±     99.057  ops/us
+ * [info] Queues.handoff:offer            32        1024  mpscLinked   thrpt     5        0.122 ±      0.057  ops/us
+ * [info] Queues.handoff:poll             32        1024  mpscLinked   thrpt     5        0.122 ±      0.056  ops/us
+ * [info] Queues.handoff:polls            32        1024  mpscLinked   thrpt     5        0.123 ±      0.058  ops/us
+ * [info] Queues.handoff                  32        1024         clq   thrpt     5        0.241 ±      0.144  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024         clq   thrpt     5      173.313 ±    157.767  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024         clq   thrpt     5      208.721 ±    190.732  ops/us
+ * [info] Queues.handoff:offer            32        1024         clq   thrpt     5        0.120 ±      0.072  ops/us
+ * [info] Queues.handoff:poll             32        1024         clq   thrpt     5        0.120 ±      0.072  ops/us
+ * [info] Queues.handoff:polls            32        1024         clq   thrpt     5        0.121 ±      0.071  ops/us
+ * [info] Queues.handoff                  32        1024         abq   thrpt     5        0.218 ±      0.177  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024         abq   thrpt     5       62.927 ±     50.880  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024         abq   thrpt     5       68.910 ±     58.778  ops/us
+ * [info] Queues.handoff:offer            32        1024         abq   thrpt     5        0.109 ±      0.090  ops/us
+ * [info] Queues.handoff:poll             32        1024         abq   thrpt     5        0.109 ±      0.087  ops/us
+ * [info] Queues.handoff:polls            32        1024         abq   thrpt     5        0.109 ±      0.088  ops/us
+ * [info] Queues.handoff                  32        1024         ltq   thrpt     5        0.235 ±      0.120  ops/us
+ * [info] Queues.handoff:emptyPolls       32        1024         ltq   thrpt     5      143.695 ±     70.274  ops/us
+ * [info] Queues.handoff:fullOffers       32        1024         ltq   thrpt     5      227.518 ±    108.463  ops/us
+ * [info] Queues.handoff:offer            32        1024         ltq   thrpt     5        0.117 ±      0.060  ops/us
+ * [info] Queues.handoff:poll             32        1024         ltq   thrpt     5        0.117 ±      0.061  ops/us
+ * [info] Queues.handoff:polls            32        1024         ltq   thrpt     5        0.118 ±      0.061  ops/us
+ * [info] Queues.roundTrip                32        1024        spsc  sample  1239  8107917.947 ± 187210.946   ns/op
+ * [info] Queues.roundTrip:ping           32        1024        spsc  sample   621  8132175.974 ± 292196.063   ns/op
+ * [info] Queues.roundTrip:pong           32        1024        spsc  sample   618  8083542.162 ± 235443.991   ns/op
+ * [info] Queues.roundTrip                32        1024        mpsc  sample  1216  8245665.489 ± 208067.124   ns/op
+ * [info] Queues.roundTrip:ping           32        1024        mpsc  sample   606  8278492.515 ± 283468.116   ns/op
+ * [info] Queues.roundTrip:pong           32        1024        mpsc  sample   610  8213053.723 ± 306067.150   ns/op
+ * [info] Queues.roundTrip                32        1024        spmc  sample  1188  8450260.175 ± 230721.915   ns/op
+ * [info] Queues.roundTrip:ping           32        1024        spmc  sample   592  8456918.486 ± 323245.954   ns/op
+ * [info] Queues.roundTrip:pong           32        1024        spmc  sample   596  8443646.550 ± 331138.026   ns/op
+ * [info] Queues.roundTrip                32        1024        mpmc  sample  1225  8199348.969 ± 186449.580   ns/op
+ * [info] Queues.roundTrip:ping           32        1024        mpmc  sample   611  8218345.794 ± 263976.827   ns/op
+ * [info] Queues.roundTrip:pong           32        1024        mpmc  sample   614  8180444.963 ± 264848.796   ns/op
+ * [info] Queues.roundTrip                32        1024  mpscLinked  sample  1160  8662978.207 ± 230413.616   ns/op
+ * [info] Queues.roundTrip:ping           32        1024  mpscLinked  sample   581  8677502.898 ± 325482.580   ns/op
+ * [info] Queues.roundTrip:pong           32        1024  mpscLinked  sample   579  8648403.344 ± 328171.067   ns/op
+ * [info] Queues.roundTrip                32        1024         clq  sample  1201  8376189.950 ± 227111.762   ns/op
+ * [info] Queues.roundTrip:ping           32        1024         clq  sample   599  8388033.603 ± 322304.809   ns/op
+ * [info] Queues.roundTrip:pong           32        1024         clq  sample   602  8364405.319 ± 321916.888   ns/op
+ * [info] Queues.roundTrip                32        1024         abq  sample  1208  8302024.503 ± 397963.019   ns/op
+ * [info] Queues.roundTrip:ping           32        1024         abq  sample   603  8320253.028 ± 571631.537   ns/op
+ * [info] Queues.roundTrip:pong           32        1024         abq  sample   605  8283856.238 ± 557162.620   ns/op
+ * [info] Queues.roundTrip                32        1024         ltq  sample  1124  8923184.290 ± 268429.612   ns/op
+ * [info] Queues.roundTrip:ping           32        1024         ltq  sample   562  8946050.278 ± 386228.057   ns/op
+ * [info] Queues.roundTrip:pong           32        1024         ltq  sample   562  8900318.302 ± 375250.571   ns/op
+ *
+ * The producer and the consumer only take turns here: the producer fills the queue and then fails
+ * until the scheduler switches threads, the consumer empties it and then fails. Every queue hands
+ * over about one element per 8-10 us, the 1024 elements of a time slice, and a round trip takes
+ * a time slice, whatever the queue; only the failed attempts show the cost of an offer or poll,
+ * 2-3 times as many for the lock free queues as for the lock of ArrayBlockingQueue. Use a machine
+ * with a core per thread to compare the handoffs.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Queues {
+
+    static final Object ITEM = 42;
+
+    // the distance of two indices in an AtomicLongArray, 128 bytes
+    static final int PAD = 16;
+
+    @Param({"spsc", "mpsc", "spmc", "mpmc", "mpscLinked", "clq", "abq", "ltq"})
+    String kind;
+
+    @Param({"1024"})
+    int capacity;
+
+    @Param({"32"})
+    int batch;
+
+    BoundedQueue q;
+    BoundedQueue back;
+
+    // new queues for every iteration, so no element of an interrupted round trip is left over
+    @Setup(Level.Iteration)
+    public void setup(BenchmarkParams params) {
+        int[] groups = params.getThreadGroups();
+        check(kind, groups[0], groups[1]);
+        // the second thread of a round trip produces into back, the first consumes from it
+        if (params.getBenchmark().endsWith(".roundTrip")) check(kind, groups[1], groups[0]);
+        q = create(kind, capacity);
+        back = create(kind, capacity);
+    }
+
+    static void check(String kind, int producers, int consumers) {
+        boolean singleProducer = kind.equals("spsc") || kind.equals("spmc");
+        boolean singleConsumer = kind.equals("spsc") || kind.equals("mpsc") || kind.equals("mpscLinked");
+        if (singleProducer && producers > 1 || singleConsumer && consumers > 1)
+            throw new IllegalStateException(kind + " does not support " + producers + " producers and " + consumers + " consumers");
+    }
+
+    static BoundedQueue create(String kind, int capacity) {
+        switch (kind) {
+            case "spsc": return new Spsc(capacity);
+            case "mpsc": return new Mpsc(capacity);
+            case "spmc": return new Spmc(capacity);
+            case "mpmc": return new Mpmc(capacity);
+            case "mpscLinked": return new Counted(new MpscLinked(), capacity);
+            case "clq": return new Counted(new JdkQueue(new ConcurrentLinkedQueue<>()), capacity);
+            case "abq": return new JdkQueue(new ArrayBlockingQueue<>(capacity));
+            case "ltq": return new Counted(new JdkQueue(new LinkedTransferQueue<>()), capacity);
+            default: throw new IllegalArgumentException(kind);
+        }
+    }
+
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Ops {
+        public long polls;
+        public long fullOffers;
+        public long emptyPolls;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            polls = fullOffers = emptyPolls = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public void offer(Ops ops, Control control) {
+        while (!q.offer(ITEM) && !control.stopMeasurement) ops.fullOffers++;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public Object poll(Ops ops, Control control) {
+        Object e;
+        while ((e = q.poll()) == null && !control.stopMeasurement) ops.emptyPolls++;
+        if (e != null) ops.polls++;
+        return e;
+    }
+
+    @Benchmark
+    @Group("batch")
+    public void batchOffer(Ops ops, Control control) {
+        while (!q.offer(ITEM) && !control.stopMeasurement) ops.fullOffers++;
+    }
+
+    @Benchmark
+    @Group("batch")
+    public void batchPoll(Ops ops, Blackhole bh, Control control) {
+        int n;
+        while ((n = q.drain(batch, bh)) == 0 && !control.stopMeasurement) ops.emptyPolls++;
+        ops.polls += n;
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object ping(Control control) {
+        while (!q.offer(ITEM) && !control.stopMeasurement) ;
+        Object e = null;
+        while (e == null && !control.stopMeasurement) e = back.poll();
+        return e;
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void pong(Control control) {
+        Object e = null;
+        while (e == null && !control.stopMeasurement) e = q.poll();
+        while (e != null && !back.offer(e) && !control.stopMeasurement) ;
+    }
+
+    static abstract class BoundedQueue {
+        /** Adds `e` unless the queue is full. */
+        abstract boolean offer(Object e);
+
+        /** Removes the head of the queue, null if it is empty. */
+        abstract Object poll();
+
+        /** Removes up to `limit` elements and consumes them, returns the number removed. */
+        int drain(int limit, Blackhole bh) {
+            int n = 0;
+            Object e;
+            while (n < limit && (e = poll()) != null) {
+                bh.consume(e);
+                n++;
+            }
+            return n;
+        }
+    }
+
+    static abstract class Ring extends BoundedQueue {
+        static final int HEAD = PAD;
+        static final int TAIL = 2 * PAD;
+
+        final int capacity;
+        final int mask;
+        final AtomicLongArray indices = new AtomicLongArray(3 * PAD);
+
+        Ring(int capacity) {
+            if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of 2");
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+    }
+
+    /** A slot is written by the producer before it releases the tail, and cleared by the consumer before it releases the head. */
+    static final class Spsc extends Ring {
+        final Object[] buffer;
+
+        Spsc(int capacity) {
+            super(capacity);
+            buffer = new Object[capacity];
+        }
+
+        boolean offer(Object e) {
+            long t = indices.get(TAIL);
+            if (t - indices.get(HEAD) == capacity) return false;
+            buffer[(int) t & mask] = e;
+            indices.lazySet(TAIL, t + 1);
+            return true;
+        }
+
+        Object poll() {
+            long h = indices.get(HEAD);
+            if (h == indices.get(TAIL)) return null;
+            int i = (int) h & mask;
+            Object e = buffer[i];
+            buffer[i] = null;
+            indices.lazySet(HEAD, h + 1);
+            return e;
+        }
+
+        /** Reads the tail once and releases the head once for the whole batch. */
+        int drain(int limit, Blackhole bh) {
+            long h = indices.get(HEAD);
+            int n = (int) Math.min(limit, indices.get(TAIL) - h);
+            for (int k = 0; k < n; k++) {
+                int i = (int) (h + k) & mask;
+                bh.consume(buffer[i]);
+                buffer[i] = null;
+            }
+            indices.lazySet(HEAD, h + n);
+            return n;
+        }
+    }
+
+    /** Producers claim a slot on the tail, the consumer waits for the element of the head slot to appear. */
+    static final class Mpsc extends Ring {
+        final AtomicReferenceArray<Object> buffer;
+
+        Mpsc(int capacity) {
+            super(capacity);
+            buffer = new AtomicReferenceArray<>(capacity);
+        }
+
+        boolean offer(Object e) {
+            long t;
+            do {
+                t = indices.get(TAIL);
+                if (t - indices.get(HEAD) >= capacity) return false;
+            } while (!indices.compareAndSet(TAIL, t, t + 1));
+            buffer.lazySet((int) t & mask, e);
+            return true;
+        }
+
+        Object poll() {
+            long h = indices.get(HEAD);
+            int i = (int) h & mask;
+            Object e = buffer.get(i);
+            // empty, or the producer of the head slot has not written it yet
+            if (e == null) return null;
+            buffer.lazySet(i, null);
+            indices.lazySet(HEAD, h + 1);
+            return e;
+        }
+
+        int drain(int limit, Blackhole bh) {
+            long h = indices.get(HEAD);
+            int n = 0;
+            Object e;
+            while (n < limit && (e = buffer.get((int) (h + n) & mask)) != null) {
+                bh.consume(e);
+                buffer.lazySet((int) (h + n) & mask, null);
+                n++;
+            }
+            indices.lazySet(HEAD, h + n);
+            return n;
+        }
+    }
+
+    /**
+     * Consumers read the head slot, then claim it with a CAS on the head. The producer can only
+     * overwrite a slot after the head moved past it, in which case the CAS fails.
+     */
+    static final class Spmc extends Ring {
+        final AtomicReferenceArray<Object> buffer;
+
+        Spmc(int capacity) {
+            super(capacity);
+            buffer = new AtomicReferenceArray<>(capacity);
+        }
+
+        boolean offer(Object e) {
+            long t = indices.get(TAIL);
+            if (t - indices.get(HEAD) == capacity) return false;
+            buffer.lazySet((int) t & mask, e);
+            indices.lazySet(TAIL, t + 1);
+            return true;
+        }
+
+        Object poll() {
+            long h;
+            Object e;
+            do {
+                h = indices.get(HEAD);
+                if (h >= indices.get(TAIL)) return null;
+                e = buffer.get((int) h & mask);
+            } while (!indices.compareAndSet(HEAD, h, h + 1));
+            return e;
+        }
+    }
+
+    /**
+     * The sequence number of a slot is its index when it is free for the producer of that index,
+     * the index + 1 when it holds the element for the consumer of that index.
+     */
+    static final class Mpmc extends Ring {
+        final Object[] buffer;
+        final AtomicLongArray sequence;
+
+        Mpmc(int capacity) {
+            super(capacity);
+            buffer = new Object[capacity];
+            sequence = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) sequence.set(i, i);
+        }
+
+        boolean offer(Object e) {
+            long t = indices.get(TAIL);
+            while (true) {
+                int i = (int) t & mask;
+                long d = sequence.get(i) - t;
+                if (d == 0) {
+                    if (indices.compareAndSet(TAIL, t, t + 1)) {
+                        buffer[i] = e;
+                        sequence.lazySet(i, t + 1);
+                        return true;
+                    }
+                } else if (d < 0) {
+                    return false;
+                }
+                t = indices.get(TAIL);
+            }
+        }
+
+        Object poll() {
+            long h = indices.get(HEAD);
+            while (true) {
+                int i = (int) h & mask;
+                long d = sequence.get(i) - (h + 1);
+                if (d == 0) {
+                    if (indices.compareAndSet(HEAD, h, h + 1)) {
+                        Object e = buffer[i];
+                        buffer[i] = null;
+                        sequence.lazySet(i, h + capacity);
+                        return e;
+                    }
+                } else if (d < 0) {
+                    return null;
+                }
+                h = indices.get(HEAD);
+            }
+        }
+    }
+
+    /** An unbounded queue, bounded by a count of its elements. */
+    static final class Counted extends BoundedQueue {
+        final BoundedQueue q;
+        final int capacity;
+        final AtomicInteger size = new AtomicInteger();
+
+        Counted(BoundedQueue q, int capacity) {
+            this.q = q;
+            this.capacity = capacity;
+        }
+
+        boolean offer(Object e) {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                return false;
+            }
+            return q.offer(e);
+        }
+
+        Object poll() {
+            Object e = q.poll();
+            if (e != null) size.decrementAndGet();
+            return e;
+        }
+    }
+
+    /** Producers swap the tail and then link the old one to the new node, the consumer follows the links. */
+    static final class MpscLinked extends BoundedQueue {
+        static final class Node {
+            volatile Node next;
+            Object value;
+        }
+
+        final AtomicReference<Node> tail;
+        Node head;
+
+        MpscLinked() {
+            head = new Node();
+            tail = new AtomicReference<>(head);
+        }
+
+        boolean offer(Object e) {
+            Node n = new Node();
+            n.value = e;
+            tail.getAndSet(n).next = n;
+            return true;
+        }
+
+        Object poll() {
+            Node next = head.next;
+            if (next == null) return null;
+            Object e = next.value;
+            next.value = null;
+            head = next;
+            return e;
+        }
+    }
+
+    static final class JdkQueue extends BoundedQueue {
+        final java.util.Queue<Object> q;
+
+        JdkQueue(java.util.Queue<Object> q) {
+            this.q = q;
+        }
+
+        boolean offer(Object e) { return q.offer(e); }
+
+        Object poll() { return q.poll(); }
+    }
+}
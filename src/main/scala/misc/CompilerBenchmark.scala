@@ -1,36 +1,69 @@
 package misc
 
-import java.nio.charset.Charset
 import java.nio.file.{Files, Path}
 
 import org.openjdk.jmh.annotations.{Benchmark, Scope, Setup, State, _}
 
-import scala.reflect.io.AbstractFile
+import scala.tools.nsc.reporters.ConsoleReporter
+import scala.tools.nsc.{CompilerCommand, Global, Settings}
 
 /**
- * sbt \
- *   clean \
- *   'set List(scalacOptions := Nil, scalaHome := Some(file("/Users/luc/scala/scala-2.11.8/")), scalaVersion := "2.11.8")' \
- *   "jmh:run -p compilerArgs=@/Users/luc/scala/scala2/sandbox/files -f 1 -wi 90 -i 10 -bm avgt CompilerBenchmark"
- *
- * where @files contains
- *   -nowarn
- *   -language:_
- *   /Users/luc/scala/better-files/core/src/main/scala/better/files/Cmds.scala
- *   /Users/luc/scala/better-files/core/src/main/scala/better/files/File.scala
- *   /Users/luc/scala/better-files/core/src/main/scala/better/files/Implicits.scala
- *   /Users/luc/scala/better-files/core/src/main/scala/better/files/package.scala
- *   /Users/luc/scala/better-files/core/src/main/scala/better/files/Scanner.scala
- *   /Users/luc/scala/better-files/core/src/main/scala/better/files/ThreadBackedFileMonitor.scala
+ * The sources to compile are set by `corpus`:
  *
+ *   synthetic  a SyntheticCorpus of `classes` classes, of the default shape of CompilerCorpus,
+ *              written to a temporary directory and compiled to another one, with `compilerArgs`
+ *   args       `compilerArgs` only, e.g. @/path/to/args with options and source files
+ *
+ * The three modes of running the compiler side by side:
+ *
+ *   cold      a new compiler in a fresh JVM, the first compile of a command line build
+ *   compile   a new compiler (settings, classpath, symbol table) for every compile, in a warm JVM
+ *   resident  one Global for the whole trial and a new Run for every compile, like a build server:
+ *             the classpath and the symbols loaded from it are kept between runs
+ *
+ * Leave out -bm, -wi and -i to use the modes and iterations of the annotations; the score of cold is
+ * the time of a single compile, compile is in ops/s like it always was, resident in s/op.
+ *
+ * sbt clean 'jmh:run CompilerBenchmark.cold'
+ * sbt clean 'jmh:run -f 1 -wi 10 -i 5 CompilerBenchmark.(compile|resident)'
+ *
+ * On a single core machine:
+ *
+ * [info] Benchmark                   (classes)  (compilerArgs)   (corpus)   Mode  Cnt   Score   Error  Units
+ * [info] CompilerBenchmark.cold             20         -nowarn  synthetic     ss   10  16.354 ± 2.130   s/op
+ * [info] CompilerBenchmark.compile          20         -nowarn  synthetic  thrpt    5   0.429 ± 0.243  ops/s
+ * [info] CompilerBenchmark.resident         20         -nowarn  synthetic   avgt    5   1.951 ± 0.545   s/op
+ *
+ * That is 16.4 s cold, 2.3 s with a new compiler in a warm JVM and 2.0 s resident.
  */
 
 @State(Scope.Thread)
 class CompilerBenchmark {
 
-  @Param(Array("-version"))
+  @Param(Array("synthetic"))
+  var corpus: String = _
+
+  @Param(Array("20"))
+  var classes: Int = _
+
+  @Param(Array("-nowarn"))
   var compilerArgs: String = _
 
+  var input: CompilerBenchmark.Input = _
+
+  @Setup
+  def setup(): Unit = input = new CompilerBenchmark.Input(corpus, classes, compilerArgs)
+
+  @TearDown
+  def tearDown(): Unit = input.delete()
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SingleShotTime))
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  @Fork(10)
+  def cold: Boolean = compile
+
   @Benchmark
   def compile: Boolean = {
     val driver = new scala.tools.nsc.MainClass {
@@ -39,7 +72,61 @@ class CompilerBenchmark {
         true
       }
     }
-    driver.process(compilerArgs.split(" +"))
+    driver.process(input.args.toArray)
     true
   }
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  def resident(r: CompilerBenchmark.Resident): Boolean = {
+    val g = r.global
+    g.reporter.reset()
+    val run = new g.Run()
+    run.compile(r.files)
+    !g.reporter.hasErrors
+  }
+}
+
+object CompilerBenchmark {
+  /** The Global of `resident`, in a state of its own so that `cold` does not load the compiler before its shot. */
+  @State(Scope.Thread)
+  class Resident {
+    var global: Global = _
+    var files: List[String] = _
+
+    @Setup
+    def setup(b: CompilerBenchmark): Unit = {
+      val settings = new Settings()
+      settings.usejavacp.value = true
+      val command = new CompilerCommand(b.input.args, settings)
+      global = new Global(settings, new ConsoleReporter(settings))
+      files = command.files
+    }
+  }
+
+  /**
+   * The command line of a compile of `corpus` (see CompilerBenchmark), with the synthetic corpus
+   * written when created; `delete` removes it and its output again.
+   */
+  final class Input(corpus: String, classes: Int, compilerArgs: String) {
+    private var sources: Path = _
+    private var out: Path = _
+
+    val args: List[String] = {
+      val options = compilerArgs.split(" +").filter(_.nonEmpty).toList
+      corpus match {
+        case "synthetic" =>
+          sources = Files.createTempDirectory("CompilerBenchmark")
+          out = Files.createTempDirectory("CompilerBenchmark")
+          options ++ ("-d" :: out.toString :: new SyntheticCorpus(classes, 0.2, 3, 4, 3).write(sources))
+        case "args" => options
+        case _ => throw new IllegalArgumentException(s"corpus $corpus, expected synthetic or args")
+      }
+    }
+
+    def delete(): Unit = {
+      SyntheticCorpus.delete(sources)
+      SyntheticCorpus.delete(out)
+    }
+  }
 }
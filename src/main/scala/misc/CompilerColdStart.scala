@@ -0,0 +1,119 @@
+package misc
+
+import java.io.File
+import java.nio.file.{Files, Path, Paths}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+import scala.collection.JavaConverters._
+import scala.tools.nsc.Global
+
+/**
+ * The time to the first compile: every op starts a new JVM that compiles a SyntheticCorpus of
+ * `classes` classes with scala.tools.nsc.Main and exits, like a command line build. The compiler
+ * and the Scala library are on the boot classpath, so the JVM can share their classes.
+ *
+ *   default  the JVM as it comes (with the class data sharing archive of the JDK, if there is one)
+ *   noshare  -Xshare:off, no class data sharing
+ *   cds      an archive of the classes loaded by the compile, dumped in the setup (AppCDS on JDK 8
+ *            only covers the boot classpath)
+ *   c1       -XX:TieredStopAtLevel=1, only the client compiler
+ *   c2       -XX:-TieredCompilation, only the server compiler
+ *
+ * The score includes starting the process and waiting for it. `spawn` runs the same JVM with
+ * -version instead of the compiler, compile - spawn is the time of the compile in the new JVM.
+ *
+ * Needs JDK 8: Scala 2.11 does not run on the module image of later JDKs. There a dynamic archive
+ * (-XX:ArchiveClassesAtExit) would replace the dump in the setup.
+ *
+ * sbt clean 'jmh:run -f 1 CompilerColdStart'
+ *
+ * [info] Benchmark                  (classes)    (jvm)  Mode  Cnt      Score      Error  Units
+ * [info] CompilerColdStart.compile         10  default    ss   10   9711.392 ± 1088.806  ms/op
+ * [info] CompilerColdStart.compile         10  noshare    ss   10   9824.444 ± 1921.738  ms/op
+ * [info] CompilerColdStart.compile         10      cds    ss   10   8934.667 ±  974.015  ms/op
+ * [info] CompilerColdStart.compile         10       c1    ss   10   5767.571 ± 1139.966  ms/op
+ * [info] CompilerColdStart.compile         10       c2    ss   10  15772.523 ± 2038.292  ms/op
+ *
+ * [info] CompilerColdStart.spawn           10  default    ss   10     39.749 ±    3.263  ms/op
+ * [info] CompilerColdStart.spawn           10  noshare    ss   10     40.762 ±    4.508  ms/op
+ * [info] CompilerColdStart.spawn           10      cds    ss   10     48.375 ±    3.828  ms/op
+ * [info] CompilerColdStart.spawn           10       c1    ss   10     48.507 ±   10.915  ms/op
+ * [info] CompilerColdStart.spawn           10       c2    ss   10     42.021 ±    6.257  ms/op
+ *
+ * Starting a JVM that does nothing takes 40-50 ms, less than 1% of the compile.
+ *
+ * On a single core machine the JIT is what matters for a cold compile: with C1 only it takes 60% of
+ * the time, with C2 only 160%. The archive saves less than a second.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+class CompilerColdStart {
+  import CompilerColdStart._
+
+  @Param(Array("default", "noshare", "cds", "c1", "c2"))
+  var jvm: String = _
+
+  @Param(Array("10"))
+  var classes: Int = _
+
+  var dir: Path = _
+  var options: List[String] = _
+  var command: List[String] = _
+
+  @Setup
+  def setup(): Unit = {
+    require(System.getProperty("java.specification.version") == "1.8", "CompilerColdStart needs JDK 8")
+    dir = Files.createTempDirectory("CompilerColdStart")
+    val sources = Files.createDirectory(dir.resolve("src"))
+    val files = new SyntheticCorpus(classes, 0.2, 3, 4, 3).write(sources)
+    val compile = List("scala.tools.nsc.Main", "-usejavacp", "-nowarn", "-d", Files.createDirectory(dir.resolve("out")).toString) ++ files
+    options = jvm match {
+      case "default" => Nil
+      case "noshare" => List("-Xshare:off")
+      case "cds" =>
+        val classList = dir.resolve("classes.lst").toString
+        val archive = dir.resolve("compiler.jsa").toString
+        exec(List("-XX:DumpLoadedClassList=" + classList) ++ compile)
+        exec(List("-Xshare:dump", "-XX:SharedReadOnlySize=64m", "-XX:SharedReadWriteSize=64m",
+          "-XX:+UnlockDiagnosticVMOptions", "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive))
+        List("-XX:+UnlockDiagnosticVMOptions", "-XX:SharedArchiveFile=" + archive, "-Xshare:on")
+      case "c1" => List("-XX:TieredStopAtLevel=1")
+      case "c2" => List("-XX:-TieredCompilation")
+    }
+    command = options ++ compile
+  }
+
+  @TearDown
+  def tearDown(): Unit = SyntheticCorpus.delete(dir)
+
+  @Benchmark
+  def compile(): Int = exec(command)
+
+  @Benchmark
+  def spawn(): Int = exec(options :+ "-version")
+
+  /// Runs `java` with the compiler on the boot classpath and `args`, fails unless it exits with 0.
+  def exec(args: List[String]): Int = {
+    val java = Paths.get(System.getProperty("java.home"), "bin", "java").toString
+    val process = new ProcessBuilder((java :: "-Xbootclasspath/a:" + bootClasspath :: args).asJava)
+      .redirectErrorStream(true)
+      .redirectOutput(dir.resolve("output.txt").toFile)
+      .start()
+    val status = process.waitFor()
+    require(status == 0, s"$jvm: exit status $status, see ${dir.resolve("output.txt")}")
+    status
+  }
+}
+
+object CompilerColdStart {
+  /// The jars of the Scala library, reflect and compiler.
+  def bootClasspath: String =
+    List(classOf[Option[_]], classOf[scala.reflect.api.Universe], classOf[Global])
+      .map(c => new File(c.getProtectionDomain.getCodeSource.getLocation.toURI).getPath)
+      .mkString(File.pathSeparator)
+}
@@ -0,0 +1,184 @@
+package misc
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.util.Comparator
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+import scala.collection.JavaConverters._
+import scala.tools.nsc.reporters.ConsoleReporter
+import scala.tools.nsc.{Global, Settings}
+
+/**
+ * Compiles a SyntheticCorpus with a resident Global (see CompilerBenchmark.resident), so the
+ * compiler can be measured on any machine, against the shape of the code. Sweep one parameter at
+ * a time, e.g.
+ *
+ * sbt clean "jmh:run -f 1 -wi 10 -i 5 -p classes=50,100,200 CompilerCorpus"
+ * sbt clean "jmh:run -f 1 -wi 10 -i 5 -p implicits=0,0.5,1 CompilerCorpus"
+ *
+ * A short run (-wi 5 -i 3) on a single core machine, 100 classes take 4.7 s without nested patterns
+ * and 6.4 s with patterns 3 deep; a single class 0.6 s either way. The errors are large, use more
+ * iterations for real comparisons.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+class CompilerCorpus {
+
+  @Param(Array("100"))
+  var classes: Int = _
+
+  @Param(Array("0.2"))
+  var implicits: Double = _
+
+  @Param(Array("3"))
+  var matchDepth: Int = _
+
+  @Param(Array("4"))
+  var linearization: Int = _
+
+  @Param(Array("3"))
+  var genericNesting: Int = _
+
+  var global: Global = _
+  var files: List[String] = _
+  var sources: Path = _
+  var out: Path = _
+
+  @Setup
+  def setup(): Unit = {
+    val corpus = new SyntheticCorpus(classes, implicits, matchDepth, linearization, genericNesting)
+    sources = Files.createTempDirectory("CompilerCorpus")
+    out = Files.createTempDirectory("CompilerCorpus")
+    files = corpus.write(sources)
+    val settings = new Settings()
+    settings.usejavacp.value = true
+    settings.nowarn.value = true
+    settings.outdir.value = out.toString
+    global = new Global(settings, new ConsoleReporter(settings))
+    require(compile(), "the synthetic corpus does not compile")
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    SyntheticCorpus.delete(sources)
+    SyntheticCorpus.delete(out)
+  }
+
+  @Benchmark
+  def compile(): Boolean = {
+    val g = global
+    g.reporter.reset()
+    val run = new g.Run()
+    run.compile(files)
+    !g.reporter.hasErrors
+  }
+}
+
+/**
+ * Scala sources of a given size and shape, in package `pkg`: one file of shared definitions and
+ * one file per class. Every class has METHODS methods, of which a fraction `implicits` derives a
+ * Show instance through several implicit defs, plus
+ *
+ *   - a method matching a Tree with patterns nested up to `matchDepth` deep
+ *   - a chain of `linearization` traits, each overriding a method of the one it extends and
+ *     calling super, which the class mixes in
+ *   - a method building and mapping a value `genericNesting` Boxes deep
+ */
+final class SyntheticCorpus(classes: Int, implicits: Double, matchDepth: Int, linearization: Int, genericNesting: Int,
+                            pkg: String = "corpus") {
+  import SyntheticCorpus._
+
+  /// Writes the sources to `dir`, returns their paths.
+  def write(dir: Path): List[String] = {
+    val sources = ("Shared.scala", shared) :: (0 until classes).map(i => (s"C$i.scala", cls(i))).toList
+    for ((name, source) <- sources) yield {
+      val file = dir.resolve(name)
+      Files.write(file, source.getBytes(StandardCharsets.UTF_8))
+      file.toString
+    }
+  }
+
+  def shared: String =
+    s"""package $pkg
+      |
+      |sealed trait Tree
+      |final case class Node(l: Tree, r: Tree) extends Tree
+      |final case class Leaf(v: Int) extends Tree
+      |
+      |final case class Box[A](a: A) {
+      |  def map[B](f: A => B): Box[B] = Box(f(a))
+      |}
+      |
+      |trait Show[A] { def show(a: A): String }
+      |
+      |object Show {
+      |  def show[A](a: A)(implicit s: Show[A]): String = s.show(a)
+      |  implicit val showInt: Show[Int] = new Show[Int] { def show(a: Int) = a.toString }
+      |  implicit def showOption[A](implicit s: Show[A]): Show[Option[A]] =
+      |    new Show[Option[A]] { def show(a: Option[A]) = a.fold("-")(s.show) }
+      |  implicit def showList[A](implicit s: Show[A]): Show[List[A]] =
+      |    new Show[List[A]] { def show(a: List[A]) = a.map(s.show).mkString("[", ",", "]") }
+      |  implicit def showPair[A, B](implicit a: Show[A], b: Show[B]): Show[(A, B)] =
+      |    new Show[(A, B)] { def show(p: (A, B)) = a.show(p._1) + b.show(p._2) }
+      |}
+      |""".stripMargin
+
+  def cls(i: Int): String = {
+    val b = new StringBuilder
+    b ++= s"package $pkg\n\n"
+
+    // the trait chain
+    for (k <- 0 until linearization) {
+      val parent = if (k == 0) "" else s" extends C${i}T${k - 1}"
+      val body = if (k == 0) "def value: Int = 0" else s"override def value: Int = super.value + $k"
+      b ++= s"trait C${i}T$k$parent {\n  $body\n  def m$k(x: Int): Int = x + $k\n}\n\n"
+    }
+    val mixins = (0 until linearization).map(k => s" with C${i}T$k").mkString
+    b ++= s"class C$i extends AnyRef$mixins {\n"
+
+    // plain and implicit methods, the implicit ones evenly spread
+    val implicitMethods = math.round(implicits * METHODS).toInt
+    for (m <- 0 until METHODS) {
+      val usesImplicit = (m + 1) * implicitMethods / METHODS > m * implicitMethods / METHODS
+      if (usesImplicit)
+        b ++= s"  def f$m(x: Int): String = Show.show(List((Option(x + $m), List(x, $m))))\n"
+      else
+        b ++= s"  def f$m(x: Int): String = (x + $m).toString\n"
+    }
+
+    // nested patterns, one case per depth
+    b ++= "\n  def matches(t: Tree): Int = t match {\n"
+    for (d <- matchDepth to 1 by -1)
+      b ++= s"    case ${pattern(d, "l")} => $d\n"
+    b ++= "    case Leaf(v) => v\n    case _ => -1\n  }\n"
+
+    // nested generics
+    val boxed = (0 until genericNesting).foldLeft(s"$i")((e, _) => s"Box($e)")
+    val mapped = (1 until genericNesting).foldLeft("_ + 1")((f, _) => s"_.map($f)")
+    b ++= s"\n  def generic = $boxed"
+    if (genericNesting > 0) b ++= s".map($mapped)"
+    b ++= "\n}\n"
+    b.toString
+  }
+}
+
+object SyntheticCorpus {
+  final val METHODS = 10
+
+  /// Deletes `dir` with everything in it, e.g. a written corpus or the output of compiling it.
+  def delete(dir: Path): Unit =
+    if (dir != null && Files.exists(dir)) {
+      val paths = Files.walk(dir)
+      try paths.sorted(Comparator.reverseOrder[Path]()).iterator.asScala.foreach(Files.delete)
+      finally paths.close()
+    }
+
+  /// A pattern `depth` Nodes deep along the left, binding the Leaf at the bottom.
+  private def pattern(depth: Int, name: String): String =
+    if (depth == 0) s"Leaf($name)"
+    else s"Node(${pattern(depth - 1, name)}, ${if (depth % 2 == 0) "Leaf(_)" else "_"})"
+}
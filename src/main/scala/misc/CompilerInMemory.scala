@@ -0,0 +1,242 @@
+package misc
+
+import java.io.{File => JFile, InputStream}
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.nio.{ByteBuffer, ByteOrder}
+import java.util.concurrent.TimeUnit
+import java.util.zip.{Inflater, InflaterInputStream}
+
+import org.openjdk.jmh.annotations._
+
+import scala.collection.mutable
+import scala.reflect.internal.util.{BatchSourceFile, SourceFile}
+import scala.reflect.io.{AbstractFile, FileZipArchive, VirtualDirectory, VirtualFile}
+import scala.tools.nsc.reporters.{ConsoleReporter, Reporter}
+import scala.tools.nsc.util.{ClassPath, DirectoryClassPath, JavaClassPath}
+import scala.tools.nsc.{Global, Settings}
+import scala.tools.util.PathResolver
+
+/**
+ * Compiles a SyntheticCorpus with a new Global for every op (like CompilerBenchmark.compile), with
+ * and without the file system:
+ *
+ *   disk    sources and class files in temporary directories, the classpath from its jars and
+ *           directories
+ *   memory  sources and class files in memory (BatchSourceFiles, a VirtualDirectory), the whole
+ *           classpath read into VirtualDirectories in the setup
+ *   mapped  like memory, but the jars of the classpath are memory mapped (MappedJar) and
+ *           their entries inflated when the compiler reads them
+ *
+ * Every op builds a new classpath of the entries, as a new Global does, so the packages and classes
+ * are indexed again in all three; only the storage behind the entries differs. 1 - memory / disk is
+ * the fraction of the compile spent on file system I/O: opening the jars and reading their central
+ * directories, reading the sources and the class files, writing the output.
+ *
+ * sbt clean 'jmh:run -f 1 -wi 10 -i 10 CompilerInMemory'
+ *
+ * [info] Benchmark                 (classes)    (io)  Mode  Cnt     Score     Error  Units
+ * [info] CompilerInMemory.compile         50    disk  avgt   10  4113.513 ± 606.397  ms/op
+ * [info] CompilerInMemory.compile         50  memory  avgt   10  3396.576 ± 573.705  ms/op
+ * [info] CompilerInMemory.compile         50  mapped  avgt   10  3280.989 ± 505.884  ms/op
+ *
+ * About 20% of a compile with a new Global is I/O, with errors of 15% on this machine. Inflating
+ * the class files from a mapping is as fast as reading them from memory; it is the rest of the
+ * ZipFile access that costs.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+class CompilerInMemory {
+  import CompilerInMemory._
+
+  @Param(Array("disk", "memory", "mapped"))
+  var io: String = _
+
+  @Param(Array("50"))
+  var classes: Int = _
+
+  var settings: Settings = _
+  var entries: IndexedSeq[ClassPath[AbstractFile]] = _
+  var dirs: List[Path] = Nil
+  var files: List[String] = _
+  var sources: List[SourceFile] = _
+
+  @Setup
+  def setup(): Unit = {
+    settings = new Settings()
+    settings.usejavacp.value = true
+    settings.nowarn.value = true
+    val dir = Files.createTempDirectory("CompilerInMemory")
+    dirs = List(dir)
+    files = new SyntheticCorpus(classes, 0.2, 3, 4, 3).write(dir)
+    sources = files.map(f => new BatchSourceFile(f, new String(Files.readAllBytes(new JFile(f).toPath), StandardCharsets.UTF_8)))
+    entries = new PathResolver(settings).result.entries
+    io match {
+      case "disk" =>
+        val out = Files.createTempDirectory("CompilerInMemory")
+        dirs ::= out
+        settings.outdir.value = out.toString
+      case "memory" =>
+        entries = entries.map(copy)
+      case "mapped" =>
+        entries = entries.map(mapped)
+    }
+    require(compile(), "the synthetic corpus does not compile")
+  }
+
+  @TearDown
+  def tearDown(): Unit = dirs.foreach(SyntheticCorpus.delete)
+
+  @Benchmark
+  def compile(): Boolean = {
+    val reporter = new ConsoleReporter(settings)
+    if (io == "disk") {
+      val g = new Global(settings, reporter)
+      new g.Run().compile(files)
+    } else {
+      settings.outputDirs.setSingleOutput(new VirtualDirectory("(memory)", None))
+      val g = new ClassPathGlobal(settings, reporter, classPath(entries))
+      new g.Run().compileSources(sources)
+    }
+    !reporter.hasErrors
+  }
+}
+
+object CompilerInMemory {
+  /// A new classpath of the given entries, indexed again like the classpath of a new Global.
+  def classPath(entries: IndexedSeq[ClassPath[AbstractFile]]): ClassPath[AbstractFile] =
+    new JavaClassPath(entries.map {
+      case d: DirectoryClassPath => new DirectoryClassPath(d.dir, ClassPath.DefaultJavaContext)
+      case e => e
+    }, ClassPath.DefaultJavaContext)
+
+  /// A DirectoryClassPath entry read into memory, other entries as they are.
+  def copy(entry: ClassPath[AbstractFile]): ClassPath[AbstractFile] = entry match {
+    case d: DirectoryClassPath =>
+      val dir = new VirtualDirectory(d.dir.name, None)
+      copy(d.dir, dir)
+      new DirectoryClassPath(dir, ClassPath.DefaultJavaContext)
+    case _ => entry
+  }
+
+  private def copy(from: AbstractFile, to: AbstractFile): Unit =
+    for (f <- from) {
+      if (f.isDirectory) copy(f, to.subdirectoryNamed(f.name))
+      else {
+        val out = to.fileNamed(f.name).output
+        try out.write(f.toByteArray) finally out.close()
+      }
+    }
+
+  /// A jar of the classpath memory mapped, other entries as they are.
+  def mapped(entry: ClassPath[AbstractFile]): ClassPath[AbstractFile] = entry match {
+    case d: DirectoryClassPath if d.dir.isInstanceOf[FileZipArchive] =>
+      new DirectoryClassPath(MappedJar(d.dir.file), ClassPath.DefaultJavaContext)
+    case _ => entry
+  }
+}
+
+/** A Global that looks up classes on the given classpath instead of the one of the settings. */
+class ClassPathGlobal(settings: Settings, reporter: Reporter, cp: ClassPath[AbstractFile]) extends Global(settings, reporter) {
+  override lazy val platform: ThisPlatform = new GlobalPlatform {
+    override def classPath = cp
+  }
+}
+
+/**
+ * A jar read through a memory mapping instead of a ZipFile: the central directory is parsed once
+ * into a tree of MappedDirectories, an entry is inflated from the mapping every time it is read.
+ */
+object MappedJar {
+  def apply(file: JFile): AbstractFile = {
+    val buffer = {
+      val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+      try channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size) finally channel.close()
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN)
+    def bytes(from: Int, length: Int): Array[Byte] = {
+      val b = new Array[Byte](length)
+      val d = buffer.duplicate()
+      d.position(from)
+      d.get(b)
+      b
+    }
+
+    val root = new MappedDirectory(file.getPath, None)
+    // the end of central directory record, followed by a comment of up to 64K
+    var end = buffer.limit - 22
+    while (buffer.getInt(end) != 0x06054b50) end -= 1
+    val count = buffer.getShort(end + 10) & 0xffff
+    var p = buffer.getInt(end + 16)
+    for (_ <- 0 until count) {
+      val nameLength = buffer.getShort(p + 28) & 0xffff
+      val path = new String(bytes(p + 46, nameLength), StandardCharsets.UTF_8)
+      val names = path.split('/')
+      val dir = names.init.foldLeft(root)(_ subdirectory _)
+      if (!path.endsWith("/")) {
+        val local = buffer.getInt(p + 42)
+        val data = local + 30 + (buffer.getShort(local + 26) & 0xffff) + (buffer.getShort(local + 28) & 0xffff)
+        dir.entries(names.last) = new MappedFile(names.last, path, buffer, buffer.getShort(p + 10) != 0,
+          data, buffer.getInt(p + 20), buffer.getInt(p + 24))
+      } else if (names.nonEmpty) {
+        dir.subdirectory(names.last)
+      }
+      p += 46 + nameLength + (buffer.getShort(p + 30) & 0xffff) + (buffer.getShort(p + 32) & 0xffff)
+    }
+    root
+  }
+}
+
+final class MappedDirectory(name: String, parent: Option[VirtualDirectory]) extends VirtualDirectory(name, parent) {
+  val entries = mutable.HashMap[String, AbstractFile]()
+
+  def subdirectory(name: String): MappedDirectory =
+    entries.getOrElseUpdate(name, new MappedDirectory(name, Some(this))).asInstanceOf[MappedDirectory]
+
+  override def iterator = entries.valuesIterator
+  override def lookupName(name: String, directory: Boolean): AbstractFile =
+    entries.get(name).filter(_.isDirectory == directory).orNull
+}
+
+final class MappedFile(name: String, path: String, buffer: ByteBuffer, deflated: Boolean, data: Int, compressedSize: Int, size: Int)
+  extends VirtualFile(name, path) {
+
+  override def input: InputStream = {
+    val d = buffer.duplicate()
+    d.position(data)
+    d.limit(data + compressedSize)
+    val in = new ByteBufferInputStream(d.slice())
+    if (deflated) {
+      val inflater = new Inflater(true)
+      // InflaterInputStream only ends an Inflater it created itself
+      new InflaterInputStream(in, inflater) {
+        override def close(): Unit = try super.close() finally inflater.end()
+      }
+    } else in
+  }
+
+  override def sizeOption = Some(size)
+}
+
+final class ByteBufferInputStream(buffer: ByteBuffer) extends InputStream {
+  // a trailing zero byte, which an Inflater without a zlib header may need at the end of the input
+  private var trailer = true
+
+  def read(): Int =
+    if (buffer.hasRemaining) buffer.get() & 0xff
+    else if (trailer) { trailer = false; 0 }
+    else -1
+
+  override def read(b: Array[Byte], off: Int, len: Int): Int =
+    if (len == 0) 0
+    else if (buffer.hasRemaining) {
+      val n = math.min(len, buffer.remaining)
+      buffer.get(b, off, n)
+      n
+    } else read() match {
+      case -1 => -1
+      case x => b(off) = x.toByte; 1
+    }
+}
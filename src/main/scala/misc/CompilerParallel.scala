@@ -0,0 +1,104 @@
+package misc
+
+import java.nio.file.{Files, Path, Paths}
+import java.util.concurrent._
+
+import org.openjdk.jmh.annotations._
+
+import scala.tools.nsc.reporters.ConsoleReporter
+import scala.tools.nsc.{Global, Settings}
+
+/**
+ * Independent compiles on `threads` threads of one JVM, like a build that compiles many modules at
+ * once. Every thread compiles a SyntheticCorpus of `classes` classes of its own (in package
+ * `corpus<thread>`) with its own resident Global (see CompilerBenchmark.resident) and output
+ * directory; they only share the JIT, the heap and the memory bandwidth.
+ *
+ * An op runs one compile on every thread and waits for all of them, so 1 / score is the latency of
+ * a compile with `threads` compiles running at the same time. The `lines` counter is the total
+ * number of source lines compiled per second.
+ *
+ * sbt clean "jmh:run -p threads=1,2,4,8 -f 1 -wi 10 -i 5 CompilerParallel"
+ *
+ * On a single core machine (-wi 5 -i 4):
+ *
+ * [info] Benchmark                       (classes)  (threads)   Mode  Cnt    Score     Error  Units
+ * [info] CompilerParallel.compile               20          1  thrpt    4    0.514 ±   0.391  ops/s
+ * [info] CompilerParallel.compile:lines         20          1  thrpt    4  463.497 ± 352.652  ops/s
+ * [info] CompilerParallel.compile               20          2  thrpt    4    0.336 ±   0.285  ops/s
+ * [info] CompilerParallel.compile:lines         20          2  thrpt    4  606.416 ± 513.783  ops/s
+ * [info] CompilerParallel.compile               20          4  thrpt    4    0.184 ±   0.159  ops/s
+ * [info] CompilerParallel.compile:lines         20          4  thrpt    4  665.166 ± 572.248  ops/s
+ *
+ * With one core the latency grows with the number of threads (1.9 s, 3.0 s, 5.4 s) and the total
+ * throughput stays about the same, within the large errors; run it on a machine with more cores to
+ * see where the shared resources stop the scaling.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+class CompilerParallel {
+  import CompilerParallel._
+
+  @Param(Array("20"))
+  var classes: Int = _
+
+  @Param(Array("1", "2", "4", "8"))
+  var threads: Int = _
+
+  var pool: ExecutorService = _
+  var compiles: java.util.List[Callable[Boolean]] = _
+  var lines = 0
+  var dirs: List[Path] = Nil
+
+  @Setup
+  def setup(): Unit = {
+    pool = Executors.newFixedThreadPool(threads)
+    val all = for (t <- 0 until threads) yield {
+      val sources = Files.createTempDirectory("CompilerParallel")
+      val out = Files.createTempDirectory("CompilerParallel")
+      dirs = sources :: out :: dirs
+      val files = new SyntheticCorpus(classes, 0.2, 3, 4, 3, s"corpus$t").write(sources)
+      val settings = new Settings()
+      settings.usejavacp.value = true
+      settings.nowarn.value = true
+      settings.outdir.value = out.toString
+      lines += files.map(f => Files.readAllLines(Paths.get(f)).size).sum
+      val global = new Global(settings, new ConsoleReporter(settings))
+      new Callable[Boolean] {
+        def call(): Boolean = {
+          global.reporter.reset()
+          val run = new global.Run()
+          run.compile(files)
+          !global.reporter.hasErrors
+        }
+      }
+    }
+    compiles = java.util.Arrays.asList(all: _*)
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    pool.shutdown()
+    dirs.foreach(SyntheticCorpus.delete)
+  }
+
+  @Benchmark
+  def compile(counters: Counters): Unit = {
+    val results = pool.invokeAll(compiles)
+    for (i <- 0 until results.size)
+      require(results.get(i).get, "compilation failed")
+    counters.lines += lines
+  }
+}
+
+object CompilerParallel {
+  @AuxCounters
+  @State(Scope.Thread)
+  class Counters {
+    var lines: Long = _
+
+    @Setup(Level.Iteration)
+    def clean(): Unit = lines = 0
+  }
+}
@@ -0,0 +1,218 @@
+package misc
+
+/**
+ * An exact cover problem: a set of columns (constraints) and a set of rows (choices) that each cover
+ * some of the columns. A solution is a set of rows covering every column exactly once.
+ */
+trait ExactCover {
+  /** The number of columns, numbered from 0. */
+  def columns: Int
+
+  /** The number of rows, numbered from 0. */
+  def rows: Int
+
+  /** An upper bound for the total number of columns covered by all rows. */
+  def maxNodes: Int
+
+  /** Adds all rows of the problem to `dlx` using `DancingLinks.addRow`. */
+  def addRows(dlx: DancingLinks): Unit
+}
+
+/**
+ * Knuth's Algorithm X with Dancing Links ("Dancing Links", Donald E. Knuth, 2000).
+ *
+ * The matrix is kept in flat Int arrays indexed by node, there are no node objects: node 0 is the
+ * root, nodes 1 to `columns` are the column headers and the remaining nodes make up the rows. Once
+ * built, solving does not allocate, and the structure is restored after every search so it can be
+ * reused. Rows can be selected up front (e.g. the givens of a Sudoku) and released again.
+ */
+final class DancingLinks(problem: ExactCover) {
+  val columns = problem.columns
+
+  private val capacity = 1 + columns + problem.maxNodes
+  private val left = new Array[Int](capacity)
+  private val right = new Array[Int](capacity)
+  private val up = new Array[Int](capacity)
+  private val down = new Array[Int](capacity)
+  private val column = new Array[Int](capacity)
+  private val rowOf = new Array[Int](capacity)
+  private val sizes = new Array[Int](columns + 1)
+  private val rowStart = Array.fill(problem.rows)(-1)
+  private var size = columns + 1
+
+  // rows of the current partial solution: selected rows first, then the rows chosen by the search
+  private val partial = new Array[Int](columns)
+  private var selected = 0
+
+  /** The rows of the first solution found by the last `search`. */
+  val solution = new Array[Int](columns)
+  var solutionSize = 0
+
+  /** The number of search nodes visited by the last `search`. */
+  var nodes = 0L
+  private var found = 0L
+
+  {
+    var c = 0
+    while (c <= columns) {
+      left(c) = if (c == 0) columns else c - 1
+      right(c) = if (c == columns) 0 else c + 1
+      up(c) = c
+      down(c) = c
+      column(c) = c
+      c += 1
+    }
+    problem.addRows(this)
+  }
+
+  /** Adds row `id` covering the given columns (0-based). */
+  def addRow(id: Int, cols: Array[Int]): Unit = {
+    val first = size
+    var i = 0
+    while (i < cols.length) {
+      val n = size
+      val c = cols(i) + 1
+      column(n) = c
+      rowOf(n) = id
+      up(n) = up(c)
+      down(n) = c
+      down(up(c)) = n
+      up(c) = n
+      sizes(c) += 1
+      if (i == 0) {
+        left(n) = n
+        right(n) = n
+      } else {
+        left(n) = n - 1
+        right(n) = first
+        right(n - 1) = n
+        left(first) = n
+      }
+      size += 1
+      i += 1
+    }
+    rowStart(id) = first
+  }
+
+  private def cover(c: Int): Unit = {
+    right(left(c)) = right(c)
+    left(right(c)) = left(c)
+    var i = down(c)
+    while (i != c) {
+      var j = right(i)
+      while (j != i) {
+        up(down(j)) = up(j)
+        down(up(j)) = down(j)
+        sizes(column(j)) -= 1
+        j = right(j)
+      }
+      i = down(i)
+    }
+  }
+
+  private def uncover(c: Int): Unit = {
+    var i = up(c)
+    while (i != c) {
+      var j = left(i)
+      while (j != i) {
+        sizes(column(j)) += 1
+        up(down(j)) = j
+        down(up(j)) = j
+        j = left(j)
+      }
+      i = up(i)
+    }
+    right(left(c)) = c
+    left(right(c)) = c
+  }
+
+  private def isCovered(c: Int) = right(left(c)) != c
+
+  /**
+   * Puts row `id` into every solution by covering its columns. Returns false and leaves the matrix
+   * unchanged if one of the columns is already covered by a previously selected row.
+   */
+  def select(id: Int): Boolean = {
+    val first = rowStart(id)
+    var j = first
+    do {
+      if (isCovered(column(j))) return false
+      j = right(j)
+    } while (j != first)
+    do {
+      cover(column(j))
+      j = right(j)
+    } while (j != first)
+    partial(selected) = id
+    selected += 1
+    true
+  }
+
+  /** Releases all selected rows, in reverse order of selection. */
+  def releaseAll(): Unit = {
+    while (selected > 0) {
+      selected -= 1
+      val first = rowStart(partial(selected))
+      var j = left(first)
+      while (j != first) {
+        uncover(column(j))
+        j = left(j)
+      }
+      uncover(column(first))
+    }
+  }
+
+  /**
+   * Searches for solutions that extend the selected rows and returns their number, counting up to
+   * `limit`. The first one is stored in `solution` (including the selected rows).
+   */
+  def search(limit: Long): Long = {
+    nodes = 0
+    found = 0
+    solutionSize = 0
+    search(selected, limit)
+  }
+
+  private def search(k: Int, limit: Long): Long = {
+    nodes += 1
+    if (right(0) == 0) {
+      if (found == 0) {
+        System.arraycopy(partial, 0, solution, 0, k)
+        solutionSize = k
+      }
+      found += 1
+      return 1
+    }
+
+    // choose the column with the fewest rows
+    var c = right(0)
+    var j = right(c)
+    while (j != 0 && sizes(c) > 1) {
+      if (sizes(j) < sizes(c)) c = j
+      j = right(j)
+    }
+    if (sizes(c) == 0)
+      return 0
+
+    cover(c)
+    var n = 0L
+    var r = down(c)
+    while (r != c && n < limit) {
+      partial(k) = rowOf(r)
+      j = right(r)
+      while (j != r) {
+        cover(column(j))
+        j = right(j)
+      }
+      n += search(k + 1, limit - n)
+      j = left(r)
+      while (j != r) {
+        uncover(column(j))
+        j = left(j)
+      }
+      r = down(r)
+    }
+    uncover(c)
+    n
+  }
+}
@@ -37,7 +37,8 @@
 
 package misc
 
-import scala.collection.mutable.{ArrayBuffer, ListBuffer, Stack}
+import scala.annotation.switch
+import scala.collection.mutable.{ArrayBuffer, ArrayBuilder, ListBuffer, Stack}
 import java.util.concurrent.TimeUnit
 import org.openjdk.jmh.annotations._
 
@@ -151,15 +152,32 @@ object DeltaBlue {
     }
   }
 
-  def change(v: Variable, newValue: Int)(implicit planner: Planner) {
+  def change(v: Variable, newValue: Int, executions: Int = 10)(implicit planner: Planner) {
     val edit = new EditConstraint(v, PREFERRED)
     val plan = planner.extractPlanFromConstraints(Seq(edit))
-    for (i <- 0 until 10) {
+    for (i <- 0 until executions) {
       v.value = newValue
       plan.execute()
     }
     edit.destroyConstraint
   }
+
+  /**
+   * Like change, for many variables at once. The edit constraints of
+   * all variables go into one plan, which is executed once, so a
+   * variable downstream of several edited variables is computed once
+   * per batch instead of once per edit. Edited variables that
+   * constrain each other conflict like any edit constraints of the
+   * same strength: the first one added wins. If a variable appears
+   * more than once, its last value is used.
+   */
+  def changeAll(updates: Seq[(Variable, Int)])(implicit planner: Planner) {
+    val edits = updates.map { case (v, _) => new EditConstraint(v, PREFERRED) }
+    val plan = planner.extractPlanFromConstraints(edits)
+    for ((v, newValue) <- updates) v.value = newValue
+    plan.execute()
+    for (edit <- edits) edit.destroyConstraint
+  }
 }
 
 /**
@@ -262,6 +280,12 @@ abstract class Constraint(val strength: Strength)(implicit planner: Planner) {
    * keybord, a clock, or some arbitraty piece of imperative code.
    */
   def isInput = false
+
+  /**
+   * Emit the instructions of execute() for the current direction.
+   * Constraints that do no computation emit nothing.
+   */
+  def compile(compiler: PlanCompiler) {}
 }
 
 /**
@@ -500,6 +524,13 @@ class ScaleConstraint(v1: Variable, scale: Variable, offset: Variable,
     if (out.stay) execute()
   }
 
+  override def compile(compiler: PlanCompiler) {
+    if (direction == Direction.FORWARD)
+      compiler.emit(PlanCompiler.SCALE, v2, v1, scale, offset)
+    else
+      compiler.emit(PlanCompiler.UNSCALE, v1, v2, scale, offset)
+  }
+
 }
 
 /**
@@ -510,6 +541,10 @@ class EqualityConstraint(v1: Variable, v2: Variable, strength: Strength)(implici
   def execute() {
     output().value = input().value
   }
+
+  override def compile(compiler: PlanCompiler) {
+    compiler.emit(PlanCompiler.EQUAL, output(), input())
+  }
 }
 
 /**
@@ -545,6 +580,13 @@ class Planner {
 
   var currentMark = 0
 
+  /**
+   * Incremented by every incrementalAdd and incrementalRemove, i.e.
+   * whenever the dataflow graph may have changed. Plans extracted at
+   * an older version may be stale, see PlanCache.
+   */
+  var version = 0
+
   /**
    * Attempt to satisfy the given constraint and, if successful,
    * incrementally update the dataflow graph.  Details: If satifying
@@ -560,6 +602,7 @@ class Planner {
    * constraint graph has an inadvertent cycle.
    */
   def incrementalAdd(c: Constraint) {
+    version += 1
     val mark = newMark()
     var overridden = c.satisfy(mark)
     while (overridden != null)
@@ -578,6 +621,7 @@ class Planner {
    * Assume: [c] is satisfied.
    */
   def incrementalRemove(c: Constraint) {
+    version += 1
     val out = c.output()
     c.markUnsatisfied()
     c.removeFromGraph()
@@ -723,4 +767,189 @@ class Plan {
       constraint.execute()
     }
   }
+
+  /// Lowers this plan to a CompiledPlan.
+  def compile(): CompiledPlan = {
+    val compiler = new PlanCompiler()
+    for (constraint <- list) {
+      constraint.compile(compiler)
+    }
+    compiler.result()
+  }
+}
+
+/**
+ * Builds a CompiledPlan. The variables of the plan are numbered in
+ * the order they are first used, instructions refer to them by
+ * their number.
+ */
+class PlanCompiler {
+  private val code = new ArrayBuilder.ofInt()
+  private val variables = new ArrayBuffer[Variable]()
+  private val slots = new java.util.IdentityHashMap[Variable, Integer]()
+
+  private def slot(v: Variable): Int = {
+    val s = slots.get(v)
+    if (s != null) s
+    else {
+      slots.put(v, variables.length)
+      variables += v
+      variables.length - 1
+    }
+  }
+
+  /// Appends an instruction: the opcode followed by its operands.
+  def emit(op: Int, operands: Variable*) {
+    code += op
+    for (v <- operands) code += slot(v)
+  }
+
+  def result() = new CompiledPlan(code.result(), variables.toArray)
+}
+
+object PlanCompiler {
+  // opcode        operands
+  final val EQUAL = 0   // out, in                  out = in
+  final val SCALE = 1   // out, in, scale, offset   out = in * scale + offset
+  final val UNSCALE = 2 // out, in, scale, offset   out = (in - offset) / scale
+
+  /// The number of Ints taken by an instruction with the given opcode.
+  def length(op: Int) = if (op == EQUAL) 3 else 5
+}
+
+/**
+ * A Plan lowered to a flat instruction array run by a loop, so
+ * executing it makes no virtual calls. Like the Plan it was compiled
+ * from, it is only valid until the dataflow graph changes.
+ */
+final class CompiledPlan(val code: Array[Int], val variables: Array[Variable]) {
+  import PlanCompiler._
+
+  /**
+   * Splits this plan into the plans of its independent parts. Two
+   * instructions are in the same part if one of them writes a
+   * variable that the other one reads or writes; variables that are
+   * only read, like the scale and offset of a projection, do not
+   * connect them. Every part keeps the order of its instructions, so
+   * the parts can be executed in any order, or in parallel.
+   */
+  def partition(): Array[CompiledPlan] = {
+    val written = new Array[Boolean](variables.length)
+    var pc = 0
+    while (pc < code.length) {
+      written(code(pc + 1)) = true
+      pc += length(code(pc))
+    }
+
+    // union-find over the variables
+    val parent = Array.tabulate(variables.length)(v => v)
+    def find(v: Int): Int = {
+      var r = v
+      while (parent(r) != r) {
+        parent(r) = parent(parent(r))
+        r = parent(r)
+      }
+      r
+    }
+    pc = 0
+    while (pc < code.length) {
+      var i = pc + 2
+      while (i < pc + length(code(pc))) {
+        if (written(code(i))) parent(find(code(i))) = find(code(pc + 1))
+        i += 1
+      }
+      pc += length(code(pc))
+    }
+
+    val partOf = Array.fill(variables.length)(-1)
+    val parts = new ArrayBuffer[ArrayBuilder.ofInt]()
+    pc = 0
+    while (pc < code.length) {
+      val root = find(code(pc + 1))
+      if (partOf(root) < 0) {
+        partOf(root) = parts.length
+        parts += new ArrayBuilder.ofInt()
+      }
+      parts(partOf(root)) ++= code.slice(pc, pc + length(code(pc)))
+      pc += length(code(pc))
+    }
+    parts.map(part => new CompiledPlan(part.result(), variables)).toArray
+  }
+
+  def execute() {
+    val code = this.code
+    val vs = variables
+    var pc = 0
+    while (pc < code.length) {
+      (code(pc): @switch) match {
+        case EQUAL =>
+          vs(code(pc + 1)).value = vs(code(pc + 2)).value
+          pc += 3
+        case SCALE =>
+          vs(code(pc + 1)).value = vs(code(pc + 2)).value * vs(code(pc + 3)).value + vs(code(pc + 4)).value
+          pc += 5
+        case UNSCALE =>
+          // XXX: Truncates the resulting value, like ScaleConstraint
+          vs(code(pc + 1)).value = (vs(code(pc + 2)).value - vs(code(pc + 4)).value) / vs(code(pc + 3)).value
+          pc += 5
+      }
+    }
+  }
+}
+
+/**
+ * Caches the plan for editing a set of input variables, keyed by the
+ * variables and the planner's version. Interactive clients edit the
+ * same variables many times in a row (e.g. while dragging a point),
+ * so instead of adding an edit constraint, extracting a plan and
+ * removing the constraint again for every edit (as DeltaBlue.change
+ * does) the edit constraints stay in the graph while their plan is
+ * cached. Any change to the graph invalidates the plan. Call
+ * release() to remove the edit constraints.
+ */
+class PlanCache(implicit planner: Planner) {
+  private var inputs = Set.empty[Variable]
+  // the variable of a single variable plan, so that `change` can look it up without a Set
+  private var input: Variable = null
+  private var edits: Seq[EditConstraint] = Nil
+  private var plan: Plan = null
+  private var version = -1
+
+  var hits = 0L
+  var misses = 0L
+
+  /// Returns a plan for editing the given variables.
+  def planFor(vs: Set[Variable]): Plan = {
+    if (plan != null && version == planner.version && vs == inputs) {
+      hits += 1
+    } else {
+      misses += 1
+      release()
+      inputs = vs
+      input = if (vs.size == 1) vs.head else null
+      edits = vs.toSeq.map(v => new EditConstraint(v, PREFERRED))
+      plan = planner.extractPlanFromConstraints(edits)
+      version = planner.version
+    }
+    plan
+  }
+
+  def change(v: Variable, newValue: Int) {
+    val p =
+      if (plan != null && version == planner.version && (input eq v)) {
+        hits += 1
+        plan
+      } else planFor(Set(v))
+    v.value = newValue
+    p.execute()
+  }
+
+  /// Removes the edit constraints of the cached plan from the graph.
+  def release() {
+    for (edit <- edits) edit.destroyConstraint
+    inputs = Set.empty
+    input = null
+    edits = Nil
+    plan = null
+  }
 }
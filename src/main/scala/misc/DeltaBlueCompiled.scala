@@ -0,0 +1,80 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Plan.execute, which iterates a ListBuffer and calls Constraint.execute for every constraint,
+ * against the same plan lowered to a CompiledPlan, for the graphs of DeltaBlueScaling. `compile`
+ * is the cost of lowering a plan.
+ *
+ * sbt clean 'jmh:run -f 1 -i 2 -wi 2 -jvmArgs -Xmx3g DeltaBlueCompiled'
+ *
+ * [info] DeltaBlueCompiled.compile               chain      100  avgt    2        9.680  us/op
+ * [info] DeltaBlueCompiled.compile               chain    10000  avgt    2     1272.769  us/op
+ * [info] DeltaBlueCompiled.compile               chain  1000000  avgt    2   355725.760  us/op
+ * [info] DeltaBlueCompiled.compile          projection      100  avgt    2       16.203  us/op
+ * [info] DeltaBlueCompiled.compile          projection    10000  avgt    2     2244.490  us/op
+ * [info] DeltaBlueCompiled.compile          projection  1000000  avgt    2  1011343.562  us/op
+ * [info] DeltaBlueCompiled.execute               chain      100  avgt    2        0.356  us/op
+ * [info] DeltaBlueCompiled.execute               chain    10000  avgt    2      109.536  us/op
+ * [info] DeltaBlueCompiled.execute               chain  1000000  avgt    2    13255.059  us/op
+ * [info] DeltaBlueCompiled.execute          projection      100  avgt    2        0.390  us/op
+ * [info] DeltaBlueCompiled.execute          projection    10000  avgt    2      184.553  us/op
+ * [info] DeltaBlueCompiled.execute          projection  1000000  avgt    2    22208.347  us/op
+ * [info] DeltaBlueCompiled.executeCompiled       chain      100  avgt    2        0.291  us/op
+ * [info] DeltaBlueCompiled.executeCompiled       chain    10000  avgt    2       30.825  us/op
+ * [info] DeltaBlueCompiled.executeCompiled       chain  1000000  avgt    2     3086.275  us/op
+ * [info] DeltaBlueCompiled.executeCompiled  projection      100  avgt    2        0.998  us/op
+ * [info] DeltaBlueCompiled.executeCompiled  projection    10000  avgt    2      100.394  us/op
+ * [info] DeltaBlueCompiled.executeCompiled  projection  1000000  avgt    2    13569.639  us/op
+ *
+ * For long chains the compiled plan is 3.5-4.3x faster, it touches only the variables and one
+ * Int array instead of the ListBuffer cells and the constraints. For a projection of 100 it is
+ * slower (0.66 vs 0.40 us in a longer run). Each fork runs a single graph, so Plan.execute only
+ * sees two constraint classes and the calls are inlined anyway; compiling pays off in the cache
+ * footprint, not the dispatch. Compiling costs 10-45 executions of the plan.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+class DeltaBlueCompiled {
+
+  @Param(Array("100", "10000", "1000000"))
+  var size: Int = _
+
+  @Param(Array("chain", "projection"))
+  var graph: String = _
+
+  var g: DeltaBlueScaling.Graph = _
+  var plan: Plan = _
+  var compiled: CompiledPlan = _
+
+  @Setup
+  def setup(): Unit = {
+    g = DeltaBlueScaling.graph(graph, size)
+    plan = g.planner.extractPlanFromConstraints(Seq(g.edit()))
+    compiled = plan.compile()
+    for (value <- Seq(17, -4, 100)) {
+      g.input.value = value
+      compiled.execute()
+      require(g.isConsistent, s"$graph($size) is inconsistent after executing the compiled plan")
+    }
+  }
+
+  @Benchmark
+  def execute(): Unit = {
+    g.input.value += 1
+    plan.execute()
+  }
+
+  @Benchmark
+  def executeCompiled(): Unit = {
+    g.input.value += 1
+    compiled.execute()
+  }
+
+  @Benchmark
+  def compile(): CompiledPlan = plan.compile()
+}
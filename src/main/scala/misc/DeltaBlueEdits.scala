@@ -0,0 +1,189 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+import scala.util.Random
+
+/**
+ * Interactive edits, the way a UI drives DeltaBlue: the user drags a random variable of the graph
+ * (see DeltaBlueScaling), which sends `drag` edits of that variable in a row, then picks another
+ * one. With probability `changes` an event adds or removes a weak stay constraint instead, which
+ * invalidates the cached plan. One op is one event.
+ *
+ *   uncached  every edit adds an edit constraint, extracts a plan, executes it and removes the
+ *             constraint again, like DeltaBlue.change
+ *   cached    edits go through a PlanCache
+ *
+ * The score is in events per ms. The `hits` and `misses` of the cache are reported as auxiliary
+ * counters, in hits and misses per ms, so the hit rate is hits / (hits + misses); the events that
+ * add or remove a stay constraint are neither. Latency percentiles are available with `-bm sample`.
+ *
+ * sbt clean 'jmh:run -f 1 -i 2 -wi 1 DeltaBlueEdits'
+ *
+ * [info] Benchmark                     (changes)  (drag)     (graph)  (size)   Mode  Cnt      Score   Error   Units
+ * [info] DeltaBlueEdits.cached                 0       1       chain    1000  thrpt    2      5.427          ops/ms
+ * [info] DeltaBlueEdits.cached:hits            0       1       chain    1000  thrpt    2      0.005          ops/ms
+ * [info] DeltaBlueEdits.cached:misses          0       1       chain    1000  thrpt    2      5.421          ops/ms
+ * [info] DeltaBlueEdits.cached                 0       1  projection    1000  thrpt    2    913.864          ops/ms
+ * [info] DeltaBlueEdits.cached:hits            0       1  projection    1000  thrpt    2      0.726          ops/ms
+ * [info] DeltaBlueEdits.cached:misses          0       1  projection    1000  thrpt    2    913.139          ops/ms
+ * [info] DeltaBlueEdits.cached                 0      10       chain    1000  thrpt    2     47.912          ops/ms
+ * [info] DeltaBlueEdits.cached:hits            0      10       chain    1000  thrpt    2     43.119          ops/ms
+ * [info] DeltaBlueEdits.cached:misses          0      10       chain    1000  thrpt    2      4.793          ops/ms
+ * [info] DeltaBlueEdits.cached                 0      10  projection    1000  thrpt    2  12450.679          ops/ms
+ * [info] DeltaBlueEdits.cached:hits            0      10  projection    1000  thrpt    2  11205.155          ops/ms
+ * [info] DeltaBlueEdits.cached:misses          0      10  projection    1000  thrpt    2   1245.524          ops/ms
+ * [info] DeltaBlueEdits.cached                 0     100       chain    1000  thrpt    2    198.966          ops/ms
+ * [info] DeltaBlueEdits.cached:hits            0     100       chain    1000  thrpt    2    196.975          ops/ms
+ * [info] DeltaBlueEdits.cached:misses          0     100       chain    1000  thrpt    2      1.992          ops/ms
+ * [info] DeltaBlueEdits.cached                 0     100  projection    1000  thrpt    2  28631.345          ops/ms
+ * [info] DeltaBlueEdits.cached:hits            0     100  projection    1000  thrpt    2  28344.752          ops/ms
+ * [info] DeltaBlueEdits.cached:misses          0     100  projection    1000  thrpt    2    286.594          ops/ms
+ * [info] DeltaBlueEdits.cached              0.01       1       chain    1000  thrpt    2     10.477          ops/ms
+ * [info] DeltaBlueEdits.cached:hits         0.01       1       chain    1000  thrpt    2      0.014          ops/ms
+ * [info] DeltaBlueEdits.cached:misses       0.01       1       chain    1000  thrpt    2     10.365          ops/ms
+ * [info] DeltaBlueEdits.cached              0.01       1  projection    1000  thrpt    2   1004.072          ops/ms
+ * [info] DeltaBlueEdits.cached:hits         0.01       1  projection    1000  thrpt    2      0.918          ops/ms
+ * [info] DeltaBlueEdits.cached:misses       0.01       1  projection    1000  thrpt    2    993.537          ops/ms
+ * [info] DeltaBlueEdits.cached              0.01      10       chain    1000  thrpt    2     59.489          ops/ms
+ * [info] DeltaBlueEdits.cached:hits         0.01      10       chain    1000  thrpt    2     52.767          ops/ms
+ * [info] DeltaBlueEdits.cached:misses       0.01      10       chain    1000  thrpt    2      6.166          ops/ms
+ * [info] DeltaBlueEdits.cached              0.01      10  projection    1000  thrpt    2   9337.732          ops/ms
+ * [info] DeltaBlueEdits.cached:hits         0.01      10  projection    1000  thrpt    2   8281.364          ops/ms
+ * [info] DeltaBlueEdits.cached:misses       0.01      10  projection    1000  thrpt    2    969.739          ops/ms
+ * [info] DeltaBlueEdits.cached              0.01     100       chain    1000  thrpt    2    162.639          ops/ms
+ * [info] DeltaBlueEdits.cached:hits         0.01     100       chain    1000  thrpt    2    158.503          ops/ms
+ * [info] DeltaBlueEdits.cached:misses       0.01     100       chain    1000  thrpt    2      2.440          ops/ms
+ * [info] DeltaBlueEdits.cached              0.01     100  projection    1000  thrpt    2  29425.564          ops/ms
+ * [info] DeltaBlueEdits.cached:hits         0.01     100  projection    1000  thrpt    2  28678.451          ops/ms
+ * [info] DeltaBlueEdits.cached:misses       0.01     100  projection    1000  thrpt    2    439.998          ops/ms
+ * [info] DeltaBlueEdits.uncached               0       1       chain    1000  thrpt    2     12.294          ops/ms
+ * [info] DeltaBlueEdits.uncached               0       1  projection    1000  thrpt    2   2317.205          ops/ms
+ * [info] DeltaBlueEdits.uncached               0      10       chain    1000  thrpt    2     10.504          ops/ms
+ * [info] DeltaBlueEdits.uncached               0      10  projection    1000  thrpt    2   2522.663          ops/ms
+ * [info] DeltaBlueEdits.uncached               0     100       chain    1000  thrpt    2      9.073          ops/ms
+ * [info] DeltaBlueEdits.uncached               0     100  projection    1000  thrpt    2   2526.105          ops/ms
+ * [info] DeltaBlueEdits.uncached            0.01       1       chain    1000  thrpt    2     11.250          ops/ms
+ * [info] DeltaBlueEdits.uncached            0.01       1  projection    1000  thrpt    2   2365.222          ops/ms
+ * [info] DeltaBlueEdits.uncached            0.01      10       chain    1000  thrpt    2     11.382          ops/ms
+ * [info] DeltaBlueEdits.uncached            0.01      10  projection    1000  thrpt    2   1623.672          ops/ms
+ * [info] DeltaBlueEdits.uncached            0.01     100       chain    1000  thrpt    2     10.394          ops/ms
+ * [info] DeltaBlueEdits.uncached            0.01     100  projection    1000  thrpt    2   2697.863          ops/ms
+ *
+ * The hit rates are 0.1%, 90% and 99% for drags of 1, 10 and 100 edits on both graphs, and 89.5%
+ * and 98.5% for drags of 10 and 100 with changes. Caching makes drags of 10 edits 4-5 times as
+ * fast, drags of 100 edits 10-20 times. Without drags (drag = 1) there are no hits, and a miss
+ * also has to remove the edit constraints of the last plan: for the projection, where a plan is
+ * only a few constraints, that makes the cached path more than twice as slow (1.0-1.1 us per event
+ * vs 0.4 us).
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+class DeltaBlueEdits {
+  import DeltaBlueEdits._
+
+  @Param(Array("chain", "projection"))
+  var graph: String = _
+
+  @Param(Array("1000"))
+  var size: Int = _
+
+  @Param(Array("1", "10", "100"))
+  var drag: Int = _
+
+  @Param(Array("0", "0.01"))
+  var changes: Double = _
+
+  var session: Session = _
+
+  @Setup
+  def setup(): Unit = {
+    val events = DeltaBlueEdits.events(DeltaBlueScaling.graph(graph, size).variables.length, drag, changes)
+    val uncached = new Session(DeltaBlueScaling.graph(graph, size), events)
+    val cached = new Session(DeltaBlueScaling.graph(graph, size), events)
+    for (_ <- events.indices) {
+      uncached.next(cached = false)
+      cached.next(cached = true)
+    }
+    // DeltaBlue.change removes the edit constraint, which can change the edited variable again
+    // (e.g. the integer division in ScaleConstraint), so compare without the cached edits
+    cached.cache.release()
+    require(uncached.g.variables.map(_.value) sameElements cached.g.variables.map(_.value),
+      "cached and uncached edits disagree")
+    session = new Session(DeltaBlueScaling.graph(graph, size), events)
+  }
+
+  @Benchmark
+  def uncached(): Unit = session.next(cached = false)
+
+  @Benchmark
+  def cached(counters: Counters): Unit = {
+    val c = session.cache
+    val hits = c.hits
+    val misses = c.misses
+    session.next(cached = true)
+    counters.hits += c.hits - hits
+    counters.misses += c.misses - misses
+  }
+}
+
+object DeltaBlueEdits {
+  final val EVENTS = 1 << 14
+
+  @AuxCounters
+  @State(Scope.Thread)
+  class Counters {
+    var hits: Long = _
+    var misses: Long = _
+
+    @Setup(Level.Iteration)
+    def clean(): Unit = {
+      hits = 0
+      misses = 0
+    }
+  }
+
+  /**
+   * A cyclic sequence of events on a graph with `variables` variables: `i >= 0` edits variable `i`,
+   * `-1 - i` adds or removes a stay constraint on variable `i`.
+   */
+  def events(variables: Int, drag: Int, changes: Double, seed: Long = 20161020): Array[Int] = {
+    val r = new Random(seed)
+    val events = new Array[Int](EVENTS)
+    var v = 0
+    for (i <- events.indices) {
+      if (i % drag == 0) v = r.nextInt(variables)
+      events(i) = if (r.nextDouble() < changes) -1 - r.nextInt(variables) else v
+    }
+    events
+  }
+
+  /** Replays `events` on `g`. */
+  final class Session(val g: DeltaBlueScaling.Graph, events: Array[Int]) {
+    import g.planner
+
+    val cache = new PlanCache
+    private val stays = new Array[StayConstraint](g.variables.length)
+    private var i = 0
+
+    def next(cached: Boolean): Unit = {
+      val e = events(i)
+      if (e >= 0) {
+        if (cached) cache.change(g.variables(e), i)
+        else DeltaBlue.change(g.variables(e), i, executions = 1)
+      } else {
+        val v = -1 - e
+        if (stays(v) == null) {
+          stays(v) = new StayConstraint(g.variables(v), WEAK_DEFAULT)
+        } else {
+          stays(v).destroyConstraint
+          stays(v) = null
+        }
+      }
+      i = (i + 1) & (EVENTS - 1)
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package misc
+
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveAction, TimeUnit}
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Executes a plan over `chains` independent chains of `length` equality constraints (each with a
+ * stay at one end and an edit at the other) sequentially as one CompiledPlan, and in parallel as
+ * a ParallelPlan over the parts found by CompiledPlan.partition.
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -p threads=1,2,4,8 DeltaBlueParallel'
+ *
+ * On a machine with a single core the parallel plan can only show its overhead: 4.3-5.7 ms
+ * against 3.1-3.8 ms for the sequential one (with large errors), for 10^6 constraints.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+class DeltaBlueParallel {
+  import DeltaBlueParallel._
+
+  @Param(Array("1000"))
+  var chains: Int = _
+
+  @Param(Array("1000"))
+  var length: Int = _
+
+  @Param(Array("1", "2", "4", "8"))
+  var threads: Int = _
+
+  var g: Chains = _
+  var compiled: CompiledPlan = _
+  var parallelPlan: ParallelPlan = _
+  var pool: ForkJoinPool = _
+  var value = 0
+
+  @Setup
+  def setup(): Unit = {
+    g = new Chains(chains, length)
+    compiled = g.planner.extractPlanFromConstraints(g.edits).compile()
+    parallelPlan = new ParallelPlan(compiled.partition())
+    require(parallelPlan.parts.length == chains, s"${parallelPlan.parts.length} parts for $chains chains")
+    pool = new ForkJoinPool(threads)
+    g.edit(42)
+    parallelPlan.execute(pool)
+    require(g.isConsistent, "inconsistent after executing the parallel plan")
+  }
+
+  @TearDown
+  def tearDown(): Unit = pool.shutdown()
+
+  @Benchmark
+  def sequential(): Unit = {
+    value += 1
+    g.edit(value)
+    compiled.execute()
+  }
+
+  @Benchmark
+  def parallel(): Unit = {
+    value += 1
+    g.edit(value)
+    parallelPlan.execute(pool)
+  }
+}
+
+object DeltaBlueParallel {
+
+  /** `k` independent chains of the graph of DeltaBlue.chainTest, with an edit on the head of each. */
+  final class Chains(k: Int, length: Int) {
+    implicit val planner = new Planner()
+
+    val chains = Array.fill(k)(Array.fill(length + 1)(new Variable("v", 0)))
+    for (c <- chains) {
+      for (i <- 0 until length) new EqualityConstraint(c(i), c(i + 1), REQUIRED)
+      new StayConstraint(c(length), STRONG_DEFAULT)
+    }
+    val edits = chains.map(c => new EditConstraint(c(0), PREFERRED))
+
+    /** Sets the head of every chain. */
+    def edit(value: Int): Unit = {
+      var i = 0
+      while (i < chains.length) {
+        chains(i)(0).value = value
+        i += 1
+      }
+    }
+
+    def isConsistent = chains.forall(c => c.forall(_.value == c(0).value))
+  }
+}
+
+/**
+ * Executes independent plans (see CompiledPlan.partition) on a ForkJoinPool. The parts are split
+ * recursively until a task has no more than GRAIN Ints of code.
+ */
+final class ParallelPlan(val parts: Array[CompiledPlan]) {
+  import ParallelPlan._
+
+  // ends(i) is the total code length of parts 0 to i - 1
+  private val ends = parts.scanLeft(0)(_ + _.code.length)
+
+  def execute(pool: ForkJoinPool): Unit = pool.invoke(new Execute(0, parts.length))
+
+  private final class Execute(from: Int, to: Int) extends RecursiveAction {
+    def compute(): Unit = {
+      if (to - from <= 1 || ends(to) - ends(from) <= GRAIN) {
+        var i = from
+        while (i < to) {
+          parts(i).execute()
+          i += 1
+        }
+      } else {
+        val mid = (from + to) >>> 1
+        ForkJoinTask.invokeAll(new Execute(from, mid), new Execute(mid, to))
+      }
+    }
+  }
+}
+
+object ParallelPlan {
+  final val GRAIN = 1 << 14
+}
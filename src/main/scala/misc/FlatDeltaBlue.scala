@@ -0,0 +1,605 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+/**
+ * DeltaBlue on FlatPlanner, which keeps variables and constraints in int-indexed tables instead of
+ * an object graph, compared to the original implementation. FlatPlanner mirrors Planner method by
+ * method, including the quirks of the port (e.g. BinaryConstraint.chooseMethod), so both produce
+ * the same values; this is checked in the setup.
+ *
+ * sbt clean 'jmh:run -f 1 -i 10 -wi 10 -t 1 -prof gc FlatDeltaBlue'
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+class FlatDeltaBlue {
+  import FlatDeltaBlue._
+
+  @Setup
+  def setup(): Unit = check(100)
+
+  @Benchmark
+  def objectChain(): Unit = DeltaBlue.chainTest(100)
+
+  @Benchmark
+  def flatChain(): Unit = chainTest(100)
+
+  @Benchmark
+  def objectProjection(): Unit = DeltaBlue.projectionTest(100)
+
+  @Benchmark
+  def flatProjection(): Unit = projectionTest(100)
+}
+
+object FlatDeltaBlue {
+  /** Same as DeltaBlue.chainTest. Returns the planner for checking. */
+  def chainTest(n: Int): FlatPlanner = {
+    import FlatPlanner._
+    val planner = new FlatPlanner()
+    var prev = -1
+    var first = -1
+    var last = -1
+
+    // Build chain of n equality constraints.
+    for (i <- 0 to n) {
+      val v = planner.addVariable(0)
+      if (prev != -1) planner.addEquality(prev, v, REQUIRED)
+      if (i == 0) first = v
+      if (i == n) last = v
+      prev = v
+    }
+    planner.addStay(last, STRONG_DEFAULT)
+    val edit = planner.addEdit(first, PREFERRED)
+    val plan = planner.extractPlanFromConstraint(edit, new FlatPlan(planner))
+    for (i <- 0 until 100) {
+      planner.value(first) = i
+      plan.execute()
+      if (planner.value(last) != i) {
+        print("Chain test failed.\n{last.value)\n{i}")
+      }
+    }
+    planner
+  }
+
+  /** Same as DeltaBlue.projectionTest. Returns the planner for checking. */
+  def projectionTest(n: Int): FlatPlanner = {
+    import FlatPlanner._
+    val planner = new FlatPlanner()
+    val scale = planner.addVariable(10)
+    val offset = planner.addVariable(1000)
+    var src = -1
+    var dst = -1
+
+    val dests = new Array[Int](n)
+    for (i <- 0 until n) {
+      src = planner.addVariable(i)
+      dst = planner.addVariable(i)
+      dests(i) = dst
+      planner.addStay(src, NORMAL)
+      planner.addScale(src, scale, offset, dst, REQUIRED)
+    }
+    val plan = new FlatPlan(planner)
+    change(planner, src, 17, plan)
+    if (planner.value(dst) != 1170) print("Projection 1 failed")
+    change(planner, dst, 1050, plan)
+    if (planner.value(src) != 5) print("Projection 2 failed")
+    change(planner, scale, 5, plan)
+    for (i <- 0 until n - 1) {
+      if (planner.value(dests(i)) != i * 5 + 1000) print("Projection 3 failed")
+    }
+    change(planner, offset, 2000, plan)
+    for (i <- 0 until n - 1) {
+      if (planner.value(dests(i)) != i * 5 + 2000) print("Projection 4 failed")
+    }
+    planner
+  }
+
+  /** Same as DeltaBlue.change, the plan is reused. */
+  def change(planner: FlatPlanner, v: Int, newValue: Int, plan: FlatPlan) {
+    val edit = planner.addEdit(v, FlatPlanner.PREFERRED)
+    planner.extractPlanFromConstraint(edit, plan)
+    for (i <- 0 until 10) {
+      planner.value(v) = newValue
+      plan.execute()
+    }
+    planner.destroyConstraint(edit)
+  }
+
+  /**
+   * Runs chainTest and projectionTest on both implementations and checks that all variables,
+   * in order of creation, end up with the same values.
+   */
+  def check(n: Int): Unit = {
+    def flatValues(p: FlatPlanner) = p.value.take(p.variables).toList
+    require(flatValues(chainTest(n)) == objectChainValues(n), "chainTest results differ")
+    require(flatValues(projectionTest(n)) == objectProjectionValues(n), "projectionTest results differ")
+  }
+
+  private def objectChainValues(n: Int): List[Int] = {
+    implicit val planner = new Planner()
+    val vars = (0 to n).map(_ => new Variable("v", 0))
+    for (i <- 1 to n) new EqualityConstraint(vars(i - 1), vars(i), REQUIRED)
+    new StayConstraint(vars.last, STRONG_DEFAULT)
+    val edit = new EditConstraint(vars.head, PREFERRED)
+    val plan = planner.extractPlanFromConstraints(Seq(edit))
+    for (i <- 0 until 100) {
+      vars.head.value = i
+      plan.execute()
+    }
+    vars.map(_.value).toList
+  }
+
+  private def objectProjectionValues(n: Int): List[Int] = {
+    implicit val planner = new Planner()
+    val scale = new Variable("scale", 10)
+    val offset = new Variable("offset", 1000)
+    val pairs = for (i <- 0 until n) yield {
+      val src = new Variable("src", i)
+      val dst = new Variable("dst", i)
+      new StayConstraint(src, NORMAL)
+      new ScaleConstraint(src, scale, offset, dst, REQUIRED)
+      (src, dst)
+    }
+    DeltaBlue.change(pairs.last._1, 17)
+    DeltaBlue.change(pairs.last._2, 1050)
+    DeltaBlue.change(scale, 5)
+    DeltaBlue.change(offset, 2000)
+    scale.value :: offset.value :: pairs.flatMap(p => List(p._1.value, p._2.value)).toList
+  }
+}
+
+/** A growable stack of Ints that is cleared and reused instead of being reallocated. */
+final class IntStack(initialCapacity: Int) {
+  var elems = new Array[Int](initialCapacity)
+  var size = 0
+
+  def isEmpty = size == 0
+
+  def push(x: Int): Unit = {
+    if (size == elems.length) elems = java.util.Arrays.copyOf(elems, size * 2)
+    elems(size) = x
+    size += 1
+  }
+
+  def pop(): Int = {
+    size -= 1
+    elems(size)
+  }
+
+  def apply(i: Int): Int = elems(i)
+
+  def clear(): Unit = size = 0
+}
+
+object FlatPlanner {
+  // Strengths, as in Strength.value
+  final val REQUIRED = 0
+  final val STRONG_PREFERRED = 1
+  final val PREFERRED = 2
+  final val STRONG_DEFAULT = 3
+  final val NORMAL = 4
+  final val WEAK_DEFAULT = 5
+  final val WEAKEST = 6
+
+  // Constraint kinds
+  final val STAY = 0
+  final val EDIT = 1
+  final val EQUALITY = 2
+  final val SCALE = 3
+
+  final val NONE = -1
+}
+
+/**
+ * The DeltaBlue planner of Planner / Constraint / Variable on int-indexed tables. Variables and
+ * constraints are ids into parallel arrays (struct of arrays), strengths are Int ordinals and
+ * the work lists are IntStacks owned by the planner. Nested uses of a work list (e.g. a cycle
+ * found in addPropagate) only touch the elements above the size at which they started.
+ *
+ * Ids of destroyed constraints are reused.
+ */
+final class FlatPlanner {
+  import FlatPlanner._
+
+  // ################ Variables ################
+
+  var variables = 0
+  var value = new Array[Int](16)
+  var determinedBy = new Array[Int](16)
+  var mark = new Array[Int](16)
+  var walkStrength = new Array[Int](16)
+  var stay = new Array[Boolean](16)
+  var constraintsOf = new Array[IntStack](16)
+
+  def addVariable(initial: Int): Int = {
+    if (variables == value.length) {
+      val n = variables * 2
+      value = java.util.Arrays.copyOf(value, n)
+      determinedBy = java.util.Arrays.copyOf(determinedBy, n)
+      mark = java.util.Arrays.copyOf(mark, n)
+      walkStrength = java.util.Arrays.copyOf(walkStrength, n)
+      stay = java.util.Arrays.copyOf(stay, n)
+      constraintsOf = java.util.Arrays.copyOf(constraintsOf, n)
+    }
+    val v = variables
+    variables += 1
+    value(v) = initial
+    determinedBy(v) = NONE
+    mark(v) = 0
+    walkStrength(v) = WEAKEST
+    stay(v) = true
+    constraintsOf(v) = new IntStack(4)
+    v
+  }
+
+  private def addVariableConstraint(v: Int, c: Int): Unit = constraintsOf(v).push(c)
+
+  private def removeVariableConstraint(v: Int, c: Int): Unit = {
+    val cs = constraintsOf(v)
+    var i = 0
+    while (i < cs.size && cs(i) != c) i += 1
+    if (i < cs.size) {
+      System.arraycopy(cs.elems, i + 1, cs.elems, i, cs.size - i - 1)
+      cs.size -= 1
+    }
+    if (determinedBy(v) == c) determinedBy(v) = NONE
+  }
+
+  // ################ Constraints ################
+
+  var constraints = 0
+  var kind = new Array[Int](16)
+  var strength = new Array[Int](16)
+  var direction = new Array[Int](16)
+  // unary constraints use v1 only, scale and offset are only used by scale constraints
+  var v1 = new Array[Int](16)
+  var v2 = new Array[Int](16)
+  var scale = new Array[Int](16)
+  var offset = new Array[Int](16)
+  private val free = new IntStack(16)
+
+  def addStay(v: Int, s: Int): Int = addConstraint(STAY, s, v, NONE, NONE, NONE)
+  def addEdit(v: Int, s: Int): Int = addConstraint(EDIT, s, v, NONE, NONE, NONE)
+  def addEquality(a: Int, b: Int, s: Int): Int = addConstraint(EQUALITY, s, a, b, NONE, NONE)
+  def addScale(src: Int, sc: Int, off: Int, dst: Int, s: Int): Int = addConstraint(SCALE, s, src, dst, sc, off)
+
+  private def addConstraint(k: Int, s: Int, a: Int, b: Int, sc: Int, off: Int): Int = {
+    val c =
+      if (!free.isEmpty) free.pop()
+      else {
+        if (constraints == kind.length) {
+          val n = constraints * 2
+          kind = java.util.Arrays.copyOf(kind, n)
+          strength = java.util.Arrays.copyOf(strength, n)
+          direction = java.util.Arrays.copyOf(direction, n)
+          v1 = java.util.Arrays.copyOf(v1, n)
+          v2 = java.util.Arrays.copyOf(v2, n)
+          scale = java.util.Arrays.copyOf(scale, n)
+          offset = java.util.Arrays.copyOf(offset, n)
+        }
+        constraints += 1
+        constraints - 1
+      }
+    kind(c) = k
+    strength(c) = s
+    v1(c) = a
+    v2(c) = b
+    scale(c) = sc
+    offset(c) = off
+    addToGraph(c)
+    incrementalAdd(c)
+    c
+  }
+
+  def destroyConstraint(c: Int): Unit = {
+    if (isSatisfied(c))
+      incrementalRemove(c)
+    removeFromGraph(c)
+    free.push(c)
+  }
+
+  def isInput(c: Int) = kind(c) == EDIT
+
+  private def isUnary(c: Int) = kind(c) <= EDIT
+
+  // unary constraints are satisfied in direction FORWARD
+  def isSatisfied(c: Int) = direction(c) != Direction.NONE
+
+  def markUnsatisfied(c: Int): Unit = direction(c) = Direction.NONE
+
+  def input(c: Int) = if (direction(c) == Direction.FORWARD) v1(c) else v2(c)
+
+  def output(c: Int) = if (isUnary(c) || direction(c) != Direction.FORWARD) v1(c) else v2(c)
+
+  private def addToGraph(c: Int): Unit = {
+    addVariableConstraint(v1(c), c)
+    if (!isUnary(c)) addVariableConstraint(v2(c), c)
+    if (kind(c) == SCALE) {
+      addVariableConstraint(scale(c), c)
+      addVariableConstraint(offset(c), c)
+    }
+    direction(c) = Direction.NONE
+  }
+
+  private def removeFromGraph(c: Int): Unit = {
+    removeVariableConstraint(v1(c), c)
+    if (!isUnary(c)) removeVariableConstraint(v2(c), c)
+    if (kind(c) == SCALE) {
+      removeVariableConstraint(scale(c), c)
+      removeVariableConstraint(offset(c), c)
+    }
+    direction(c) = Direction.NONE
+  }
+
+  private def stronger(s1: Int, s2: Int) = s1 < s2
+  private def weaker(s1: Int, s2: Int) = s1 > s2
+  private def weakest(s1: Int, s2: Int) = if (weaker(s1, s2)) s1 else s2
+
+  /** See UnaryConstraint.chooseMethod and BinaryConstraint.chooseMethod. */
+  private def chooseMethod(c: Int, m: Int): Unit = {
+    val s = strength(c)
+    if (isUnary(c)) {
+      val out = v1(c)
+      direction(c) =
+        if (mark(out) != m && stronger(s, walkStrength(out))) Direction.FORWARD
+        else Direction.NONE
+    } else {
+      val a = v1(c)
+      val b = v2(c)
+      if (mark(a) == m) {
+        direction(c) =
+          if (mark(b) != m && stronger(s, walkStrength(b))) Direction.FORWARD
+          else Direction.NONE
+      }
+      if (mark(b) == m) {
+        direction(c) =
+          if (mark(a) != m && stronger(s, walkStrength(a))) Direction.BACKWARD
+          else Direction.NONE
+      }
+      if (weaker(walkStrength(a), walkStrength(b))) {
+        direction(c) =
+          if (stronger(s, walkStrength(a))) Direction.BACKWARD
+          else Direction.NONE
+      } else {
+        direction(c) =
+          if (stronger(s, walkStrength(b))) Direction.FORWARD
+          else Direction.BACKWARD
+      }
+    }
+  }
+
+  private def markInputs(c: Int, m: Int): Unit = {
+    if (!isUnary(c)) {
+      mark(input(c)) = m
+      if (kind(c) == SCALE) {
+        mark(scale(c)) = m
+        mark(offset(c)) = m
+      }
+    }
+  }
+
+  def inputsKnown(c: Int, m: Int): Boolean = isUnary(c) || {
+    val i = input(c)
+    mark(i) == m || stay(i) || determinedBy(i) == NONE
+  }
+
+  /** Enforce constraint c. Assume that it is satisfied. */
+  def execute(c: Int): Unit = {
+    kind(c) match {
+      case EQUALITY =>
+        value(output(c)) = value(input(c))
+      case SCALE =>
+        if (direction(c) == Direction.FORWARD) {
+          value(v2(c)) = value(v1(c)) * value(scale(c)) + value(offset(c))
+        } else {
+          // XXX: Truncates the resulting value
+          value(v1(c)) = (value(v2(c)) - value(offset(c))) / value(scale(c))
+        }
+      case _ =>
+        // Stay and edit constraints do nothing.
+    }
+  }
+
+  /** See UnaryConstraint.recalculate, BinaryConstraint.recalculate and ScaleConstraint.recalculate. */
+  private def recalculate(c: Int): Unit = {
+    val out = output(c)
+    if (isUnary(c)) {
+      walkStrength(out) = strength(c)
+      stay(out) = !isInput(c)
+    } else {
+      val ihn = input(c)
+      walkStrength(out) = weakest(strength(c), walkStrength(ihn))
+      stay(out) = stay(ihn) && (kind(c) != SCALE || stay(scale(c)) && stay(offset(c)))
+    }
+    if (stay(out)) execute(c) // Stay optimization.
+  }
+
+  /** See Constraint.satisfy, returns the overridden constraint or NONE. */
+  private def satisfy(c: Int, m: Int): Int = {
+    chooseMethod(c, m)
+    if (!isSatisfied(c)) {
+      if (strength(c) == REQUIRED) {
+        print("Could not satisfy a required constraint!")
+      }
+      NONE
+    } else {
+      markInputs(c, m)
+      val out = output(c)
+      val overridden = determinedBy(out)
+      if (overridden != NONE)
+        markUnsatisfied(overridden)
+      determinedBy(out) = c
+      if (!addPropagate(c, m))
+        print("Cycle encountered")
+      mark(out) = m
+      overridden
+    }
+  }
+
+  // ################ Planner ################
+
+  var currentMark = 0
+
+  // work lists, see the class comment
+  private val constraintStack = new IntStack(64)
+  private val variableStack = new IntStack(64)
+  private val unsatisfied = new IntStack(64)
+
+  /** See Planner.incrementalAdd. */
+  def incrementalAdd(c: Int): Unit = {
+    val m = newMark()
+    var overridden = satisfy(c, m)
+    while (overridden != NONE)
+      overridden = satisfy(overridden, m)
+  }
+
+  /** See Planner.incrementalRemove. */
+  def incrementalRemove(c: Int): Unit = {
+    val out = output(c)
+    markUnsatisfied(c)
+    removeFromGraph(c)
+    val base = unsatisfied.size
+    removePropagateFrom(out)
+    val end = unsatisfied.size
+    var s = REQUIRED
+    do {
+      var i = base
+      while (i < end) {
+        val u = unsatisfied(i)
+        if (strength(u) == s) incrementalAdd(u)
+        i += 1
+      }
+      s += 1
+    } while (s != WEAKEST)
+    unsatisfied.size = base
+  }
+
+  def newMark(): Int = {
+    currentMark += 1
+    currentMark
+  }
+
+  /**
+   * See Planner.extractPlanFromConstraints, for a single constraint. The plan is cleared and
+   * filled, and returned.
+   */
+  def extractPlanFromConstraint(c: Int, plan: FlatPlan): FlatPlan = {
+    val base = constraintStack.size
+    if (isInput(c) && isSatisfied(c)) constraintStack.push(c)
+    makePlan(base, plan)
+  }
+
+  /** See Planner.extractPlanFromConstraints. */
+  def extractPlanFromConstraints(cs: Array[Int], plan: FlatPlan): FlatPlan = {
+    val base = constraintStack.size
+    var i = 0
+    while (i < cs.length) {
+      val c = cs(i)
+      // if not in plan already and eligible for inclusion.
+      if (isInput(c) && isSatisfied(c)) constraintStack.push(c)
+      i += 1
+    }
+    makePlan(base, plan)
+  }
+
+  /** See Planner.makePlan, the sources are on `constraintStack` above `base`. */
+  private def makePlan(base: Int, plan: FlatPlan): FlatPlan = {
+    val m = newMark()
+    plan.clear()
+    val todo = constraintStack
+    while (todo.size > base) {
+      val c = todo.pop()
+      val out = output(c)
+      if (mark(out) != m && inputsKnown(c, m)) {
+        plan.addConstraint(c)
+        mark(out) = m
+        addConstraintsConsumingTo(out, todo)
+      }
+    }
+    plan
+  }
+
+  /** See Planner.addPropagate. */
+  private def addPropagate(c: Int, m: Int): Boolean = {
+    val todo = constraintStack
+    val base = todo.size
+    todo.push(c)
+    while (todo.size > base) {
+      val d = todo.pop()
+      if (mark(output(d)) == m) {
+        todo.size = base
+        incrementalRemove(c)
+        return false
+      }
+      recalculate(d)
+      addConstraintsConsumingTo(output(d), todo)
+    }
+    true
+  }
+
+  /**
+   * See Planner.removePropagateFrom, the unsatisfied constraints are pushed on `unsatisfied`.
+   */
+  private def removePropagateFrom(out: Int): Unit = {
+    determinedBy(out) = NONE
+    walkStrength(out) = WEAKEST
+    stay(out) = true
+    val todo = variableStack
+    val base = todo.size
+    todo.push(out)
+    while (todo.size > base) {
+      val v = todo.pop()
+      val cs = constraintsOf(v)
+      var i = 0
+      while (i < cs.size) {
+        val c = cs(i)
+        if (!isSatisfied(c)) unsatisfied.push(c)
+        i += 1
+      }
+      val determining = determinedBy(v)
+      i = 0
+      while (i < cs.size) {
+        val next = cs(i)
+        if (next != determining && isSatisfied(next)) {
+          recalculate(next)
+          todo.push(output(next))
+        }
+        i += 1
+      }
+    }
+  }
+
+  private def addConstraintsConsumingTo(v: Int, coll: IntStack): Unit = {
+    val determining = determinedBy(v)
+    val cs = constraintsOf(v)
+    var i = 0
+    while (i < cs.size) {
+      val c = cs(i)
+      if (c != determining && isSatisfied(c)) coll.push(c)
+      i += 1
+    }
+  }
+}
+
+/** See Plan, a list of constraint ids of a FlatPlanner. */
+final class FlatPlan(planner: FlatPlanner) {
+  private val list = new IntStack(16)
+
+  def size = list.size
+
+  def apply(i: Int): Int = list(i)
+
+  def clear(): Unit = list.clear()
+
+  def addConstraint(c: Int): Unit = list.push(c)
+
+  def execute(): Unit = {
+    var i = 0
+    while (i < list.size) {
+      planner.execute(list(i))
+      i += 1
+    }
+  }
+}
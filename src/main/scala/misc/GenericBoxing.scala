@@ -0,0 +1,281 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+import scala.reflect.ClassTag
+
+/**
+ * Generalizes InlineUnbox from a generic identity method to the generic containers that show up
+ * in helper code: Option, Tuple2, Array[T] built through a ClassTag, @specialized classes, value
+ * classes and Function1. Every helper exists in a @noinline and an @inline flavor, as in InlineUnbox.
+ *
+ * The `base` parameter selects the boxed values: 0 stays inside the Integer cache (-128 to 127), so
+ * `Integer.valueOf` returns a cached instance, 1000 is outside of it and every box is a fresh object.
+ *
+ * Use the gc profiler to get the allocation per op (gc.alloc.rate.norm) next to the time:
+ *
+ * sbt clean 'set scalacOptions in ThisBuild ++= Seq("-optimize")' 'jmh:run -f 1 -i 5 -wi 5 -t 1 -prof gc GenericBoxing'
+ */
+
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+class GenericBoxing {
+  import GenericBoxing._
+
+  @Param(Array("0", "1000"))
+  var base: Int = _
+
+  val h = new Helpers
+
+  @Benchmark
+  def baseline: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += base + (i & 63)
+      i += 1
+    }
+    r
+  }
+
+  // Option[Int]
+
+  @Benchmark
+  def optionNo: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.optionNo(base + (i & 63)).get
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def optionYa: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.optionYa(base + (i & 63)).get
+      i += 1
+    }
+    r
+  }
+
+  // Tuple2[Int, Int]
+
+  @Benchmark
+  def tupleNo: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      val t = h.tupleNo(base + (i & 63), base + (i & 63))
+      r += t._1 + t._2
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def tupleYa: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      val t = h.tupleYa(base + (i & 63), base + (i & 63))
+      r += t._1 + t._2
+      i += 1
+    }
+    r
+  }
+
+  // Tuple2 is specialized for Int, monomorphic construction uses Tuple2$mcII$sp
+  @Benchmark
+  def tupleSpecialized: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      val t = h.tupleInt(base + (i & 63), base + (i & 63))
+      r += t._1 + t._2
+      i += 1
+    }
+    r
+  }
+
+  // Array[T] through a ClassTag
+
+  @Benchmark
+  def arrayNo: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      val a = h.arrayNo(base + (i & 63), base + (i & 63))
+      r += a(0) + a(1)
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def arrayYa: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      val a = h.arrayYa(base + (i & 63), base + (i & 63))
+      r += a(0) + a(1)
+      i += 1
+    }
+    r
+  }
+
+  // generic class vs @specialized class
+
+  @Benchmark
+  def genericBoxNo: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.genericBoxNo(base + (i & 63)).x
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def genericBoxYa: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.genericBoxYa(base + (i & 63)).x
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def specializedBoxNo: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.specializedBoxNo(base + (i & 63)).x
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def specializedBoxYa: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.specializedBoxYa(base + (i & 63)).x
+      i += 1
+    }
+    r
+  }
+
+  // value class passed through a generic method
+
+  @Benchmark
+  def valueClassNo: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.no(new Meters(base + (i & 63))).x
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def valueClassYa: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.ya(new Meters(base + (i & 63))).x
+      i += 1
+    }
+    r
+  }
+
+  // Function1[Int, Int]
+
+  @Benchmark
+  def function1No: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.applyNo(inc, base + (i & 63))
+      i += 1
+    }
+    r
+  }
+
+  @Benchmark
+  def function1Ya: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.applyYa(inc, base + (i & 63))
+      i += 1
+    }
+    r
+  }
+
+  // Function1 is specialized for Int => Int, a monomorphic call uses apply$mcII$sp
+  @Benchmark
+  def function1Specialized: Int = {
+    var i = 0
+    var r = 0
+    while (i < N) {
+      r += h.applyInt(inc, base + (i & 63))
+      i += 1
+    }
+    r
+  }
+}
+
+object GenericBoxing {
+  final val N = 10000
+
+  val inc: Int => Int = x => x + 1
+
+  final class Box[T](val x: T)
+  final class SpecializedBox[@specialized(Int) T](val x: T)
+  final class Meters(val x: Int) extends AnyVal
+
+  class Helpers {
+    @noinline final def no[T](x: T) = x
+    @inline   final def ya[T](x: T) = x
+
+    @noinline final def optionNo[T](x: T): Option[T] = Some(x)
+    @inline   final def optionYa[T](x: T): Option[T] = Some(x)
+
+    @noinline final def tupleNo[T](a: T, b: T): (T, T) = (a, b)
+    @inline   final def tupleYa[T](a: T, b: T): (T, T) = (a, b)
+    @noinline final def tupleInt(a: Int, b: Int): (Int, Int) = (a, b)
+
+    @noinline final def arrayNo[T: ClassTag](a: T, b: T): Array[T] = {
+      val r = new Array[T](2)
+      r(0) = a
+      r(1) = b
+      r
+    }
+    @inline   final def arrayYa[T: ClassTag](a: T, b: T): Array[T] = {
+      val r = new Array[T](2)
+      r(0) = a
+      r(1) = b
+      r
+    }
+
+    @noinline final def genericBoxNo[T](x: T) = new Box(x)
+    @inline   final def genericBoxYa[T](x: T) = new Box(x)
+    @noinline final def specializedBoxNo[@specialized(Int) T](x: T) = new SpecializedBox(x)
+    @inline   final def specializedBoxYa[@specialized(Int) T](x: T) = new SpecializedBox(x)
+
+    @noinline final def applyNo[T](f: T => T, x: T): T = f(x)
+    @inline   final def applyYa[T](f: T => T, x: T): T = f(x)
+    @noinline final def applyInt(f: Int => Int, x: Int): Int = f(x)
+  }
+}
@@ -76,6 +76,32 @@ class Richards {
 
   @Benchmark
   def run(): Unit = {
+    val scheduler = newScheduler()
+    scheduler.schedule()
+  }
+}
+
+object Richards {
+  final val DATA_SIZE = 4
+  final val COUNT = 2000
+
+  final val ID_IDLE = 0
+  final val ID_WORKER = 1
+  final val ID_HANDLER_A = 2
+  final val ID_HANDLER_B = 3
+  final val ID_DEVICE_A = 4
+  final val ID_DEVICE_B = 5
+  final val NUMBER_OF_IDS = 6
+
+  final val KIND_DEVICE = 0
+  final val KIND_WORK = 1
+
+  /// The counts of a Scheduler after running the tasks of newScheduler.
+  final val EXPECTED_QUEUE_COUNT = 4576
+  final val EXPECTED_HOLD_COUNT = 1829
+
+  /// A scheduler with the tasks and packets of the benchmark.
+  def newScheduler(): Scheduler = {
     val scheduler = new Scheduler()
     scheduler.addIdleTask(ID_IDLE, 0, null, COUNT)
 
@@ -97,39 +123,23 @@ class Richards {
 
     scheduler.addDeviceTask(ID_DEVICE_B, 5000, null)
 
-    scheduler.schedule()
+    scheduler
   }
 }
 
-object Richards {
-  final val DATA_SIZE = 4
-  final val COUNT = 2000
-
-  final val ID_IDLE = 0
-  final val ID_WORKER = 1
-  final val ID_HANDLER_A = 2
-  final val ID_HANDLER_B = 3
-  final val ID_DEVICE_A = 4
-  final val ID_DEVICE_B = 5
-  final val NUMBER_OF_IDS = 6
-
-  final val KIND_DEVICE = 0
-  final val KIND_WORK = 1
-}
-
 /**
  * A scheduler can be used to schedule a set of tasks based on their relative
  * priorities.  Scheduling is done by maintaining a list of task control blocks
  * which holds tasks and the data queue they are processing.
  */
-class Scheduler {
+class Scheduler(ids: Int = Richards.NUMBER_OF_IDS) {
 
   var queueCount = 0
   var holdCount = 0
   var currentTcb: TaskControlBlock = null
   var currentId: Int = 0
   var list: TaskControlBlock = null
-  val blocks = new Array[TaskControlBlock](Richards.NUMBER_OF_IDS)
+  val blocks = new Array[TaskControlBlock](ids)
 
   /// Add an idle task to this scheduler.
   def addIdleTask(id: Int, priority: Int, queue: Packet, count: Int) {
@@ -371,6 +381,16 @@ class DeviceTask(scheduler: Scheduler) extends Task(scheduler) {
 
 }
 
+/**
+ * A task that suspends itself after processing a packet, without passing
+ * it on (see RichardsQueues.populate).
+ */
+class FillerTask(scheduler: Scheduler) extends Task(scheduler) {
+
+  def run(packet: Packet): TaskControlBlock = scheduler.suspendCurrent()
+
+}
+
 /**
  * A task that manipulates work packets.
  *
@@ -0,0 +1,151 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * What the garbage of Richards costs: Richards.run allocates a new Scheduler with its task control
+ * blocks, tasks and packets for every run, a PooledRichards allocates them once and resets them
+ * before every run. The subclasses run both with a different garbage collector; use `-prof gc` to
+ * see the allocation rate (the pooled runs should allocate nothing).
+ *
+ *   allocating  Richards.newScheduler and schedule
+ *   pooled      PooledRichards.run
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -prof gc Richards.*GC'
+ *
+ * A run of Richards.newScheduler allocates 976 bytes, the pooled runs allocate nothing. On a single
+ * core machine both take 150-185 us with any of the collectors, the differences are within the
+ * error: with about 6 MB/s there is one young collection every few seconds, and the run itself is
+ * dominated by the scheduling.
+ *
+ * On JDK 11 all four collectors, ZGC included, take 110-150 us with the same large errors.
+ *
+ * RichardsZGC needs JDK 11 or later (from JDK 17 on, also --add-opens java.base/java.io=ALL-UNNAMED
+ * for the JMH of this project, see RichardsThreads); on JDK 8 leave it out with
+ * 'Richards(Serial|Parallel|G1)GC'.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+abstract class RichardsGC {
+  var richards: PooledRichards = _
+
+  @Setup
+  def setup(): Unit = {
+    richards = new PooledRichards
+    for (_ <- 1 to 2) {
+      val scheduler = richards.run()
+      require(scheduler.queueCount == Richards.EXPECTED_QUEUE_COUNT && scheduler.holdCount == Richards.EXPECTED_HOLD_COUNT,
+        s"pooled: queueCount ${scheduler.queueCount}, holdCount ${scheduler.holdCount}")
+    }
+  }
+
+  @Benchmark
+  def allocating(): Scheduler = {
+    val scheduler = Richards.newScheduler()
+    scheduler.schedule()
+    scheduler
+  }
+
+  @Benchmark
+  def pooled(): Scheduler = richards.run()
+}
+
+@Fork(jvmArgsAppend = Array("-XX:+UseSerialGC"))
+class RichardsSerialGC extends RichardsGC
+
+@Fork(jvmArgsAppend = Array("-XX:+UseParallelGC"))
+class RichardsParallelGC extends RichardsGC
+
+@Fork(jvmArgsAppend = Array("-XX:+UseG1GC"))
+class RichardsG1GC extends RichardsGC
+
+@Fork(jvmArgsAppend = Array("-XX:+UnlockExperimentalVMOptions", "-XX:+UseZGC"))
+class RichardsZGC extends RichardsGC
+
+/**
+ * The tasks and packets of Richards.newScheduler in one Scheduler that is reused for every run:
+ * `run` puts all of them back into their initial state (the links between the task control blocks
+ * and their ids and priorities never change) and schedules them again, without allocating.
+ */
+final class PooledRichards {
+  import Richards._
+
+  val scheduler = new Scheduler()
+
+  private val idle = new IdleTask(scheduler, 1, COUNT)
+  private val worker = new WorkerTask(scheduler, ID_HANDLER_A, 0)
+  private val handlerA = new HandlerTask(scheduler)
+  private val handlerB = new HandlerTask(scheduler)
+  private val deviceA = new DeviceTask(scheduler)
+  private val deviceB = new DeviceTask(scheduler)
+
+  // the initial queues of the worker and handler tasks, in order
+  private val workPackets = Array.fill(2)(new Packet(null, ID_WORKER, KIND_WORK))
+  private val devicePacketsA = Array.fill(3)(new Packet(null, ID_DEVICE_A, KIND_DEVICE))
+  private val devicePacketsB = Array.fill(3)(new Packet(null, ID_DEVICE_B, KIND_DEVICE))
+
+  scheduler.addRunningTask(ID_IDLE, 0, null, idle)
+  scheduler.addTask(ID_WORKER, 1000, null, worker)
+  scheduler.addTask(ID_HANDLER_A, 2000, null, handlerA)
+  scheduler.addTask(ID_HANDLER_B, 3000, null, handlerB)
+  scheduler.addTask(ID_DEVICE_A, 4000, null, deviceA)
+  scheduler.addTask(ID_DEVICE_B, 5000, null, deviceB)
+
+  /// Resets the scheduler and runs it, returns the scheduler.
+  def run(): Scheduler = {
+    reset()
+    scheduler.schedule()
+    scheduler
+  }
+
+  private def reset(): Unit = {
+    scheduler.queueCount = 0
+    scheduler.holdCount = 0
+    scheduler.currentId = 0
+
+    idle.v1 = 1
+    idle.count = COUNT
+    worker.v1 = ID_HANDLER_A
+    worker.v2 = 0
+    handlerA.v1 = null
+    handlerA.v2 = null
+    handlerB.v1 = null
+    handlerB.v2 = null
+    deviceA.v1 = null
+    deviceB.v1 = null
+
+    resetBlock(ID_IDLE, null)
+    scheduler.blocks(ID_IDLE).setRunning()
+    resetBlock(ID_WORKER, queue(workPackets, ID_WORKER))
+    resetBlock(ID_HANDLER_A, queue(devicePacketsA, ID_DEVICE_A))
+    resetBlock(ID_HANDLER_B, queue(devicePacketsB, ID_DEVICE_B))
+    resetBlock(ID_DEVICE_A, null)
+    resetBlock(ID_DEVICE_B, null)
+    scheduler.currentTcb = scheduler.blocks(ID_DEVICE_B)
+  }
+
+  private def resetBlock(id: Int, queue: Packet): Unit = {
+    val tcb = scheduler.blocks(id)
+    tcb.queue = queue
+    tcb.state = if (queue == null) TaskState.SUSPENDED else TaskState.SUSPENDED_RUNNABLE
+  }
+
+  /// Links the packets into a queue, the last one first like in Richards.newScheduler.
+  private def queue(packets: Array[Packet], id: Int): Packet = {
+    var queue: Packet = null
+    var i = 0
+    while (i < packets.length) {
+      val p = packets(i)
+      p.link = queue
+      p.id = id
+      p.a1 = 0
+      java.util.Arrays.fill(p.a2, 0)
+      queue = p
+      i += 1
+    }
+    queue
+  }
+}
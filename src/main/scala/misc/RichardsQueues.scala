@@ -0,0 +1,427 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Richards with `tasks` tasks: the six of the benchmark plus filler tasks with priorities between
+ * those of the idle task and handler A (see RichardsQueues.populate), scheduled by a QueueScheduler
+ * with the given run queue. Each filler runs once and then stays suspended, among the tasks of
+ * Richards.run, which make their 12982 switches and end with the same counts as Richards.run. The
+ * scheduler is built before every invocation, so the score divided by 12982 + tasks - 6 is the
+ * cost of a switch.
+ *
+ *   list     the Scheduler's list, scanned for the next task that is neither held nor suspended
+ *   binary   a binary heap of the runnable tasks
+ *   pairing  a pairing heap of the runnable tasks
+ *   bucket   an array indexed by priority rank, with a two level bitmap of the runnable tasks
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 RichardsQueues'
+ *
+ * A short run (-wi 2 -i 2) on a single core machine:
+ *
+ * [info] Benchmark                (queue)  (tasks)  Mode  Cnt        Score   Error  Units
+ * [info] RichardsQueues.schedule     list        6  avgt    2      132.167          us/op
+ * [info] RichardsQueues.schedule     list      100  avgt    2      553.562          us/op
+ * [info] RichardsQueues.schedule     list     1000  avgt    2    10443.969          us/op
+ * [info] RichardsQueues.schedule     list    10000  avgt    2    99733.939          us/op
+ * [info] RichardsQueues.schedule     list   100000  avgt    2  1623885.752          us/op
+ * [info] RichardsQueues.schedule   binary        6  avgt    2      191.779          us/op
+ * [info] RichardsQueues.schedule   binary      100  avgt    2      203.509          us/op
+ * [info] RichardsQueues.schedule   binary     1000  avgt    2      251.510          us/op
+ * [info] RichardsQueues.schedule   binary    10000  avgt    2     1230.311          us/op
+ * [info] RichardsQueues.schedule   binary   100000  avgt    2    12054.461          us/op
+ * [info] RichardsQueues.schedule  pairing        6  avgt    2      257.844          us/op
+ * [info] RichardsQueues.schedule  pairing      100  avgt    2      196.716          us/op
+ * [info] RichardsQueues.schedule  pairing     1000  avgt    2      220.782          us/op
+ * [info] RichardsQueues.schedule  pairing    10000  avgt    2      511.114          us/op
+ * [info] RichardsQueues.schedule  pairing   100000  avgt    2     5267.290          us/op
+ * [info] RichardsQueues.schedule   bucket        6  avgt    2      340.736          us/op
+ * [info] RichardsQueues.schedule   bucket      100  avgt    2      373.220          us/op
+ * [info] RichardsQueues.schedule   bucket     1000  avgt    2      408.326          us/op
+ * [info] RichardsQueues.schedule   bucket    10000  avgt    2      627.862          us/op
+ * [info] RichardsQueues.schedule   bucket   100000  avgt    2     2789.604          us/op
+ *
+ * The list is cheapest with the six tasks of the benchmark (10 ns per switch), but it walks the
+ * suspended fillers every time the worker or the idle task runs next, so its cost grows with the
+ * population: 40 ns per switch with 100 tasks, 750 ns with 1000, 14 us with 100000. The run queues
+ * only hold the runnable tasks, and after the fillers ran those are the few of the benchmark:
+ * binary, pairing and bucket take 15-30 ns per switch up to 1000 tasks. Beyond that the time to
+ * take the fillers out of the queue shows (it is built in the setup): log(tasks) sift steps each
+ * for the binary heap (107 ns per switch with 100000 tasks), less for the pairing heap (47 ns),
+ * and least for the bucket array (25 ns).
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+class RichardsQueues {
+
+  @Param(Array("6", "100", "1000", "10000", "100000"))
+  var tasks: Int = _
+
+  @Param(Array("list", "binary", "pairing", "bucket"))
+  var queue: String = _
+
+  var scheduler: QueueScheduler = _
+
+  @Setup
+  def check(): Unit = {
+    build()
+    scheduler.schedule()
+    require(scheduler.queueCount == Richards.EXPECTED_QUEUE_COUNT && scheduler.holdCount == Richards.EXPECTED_HOLD_COUNT,
+      s"$queue: queueCount ${scheduler.queueCount}, holdCount ${scheduler.holdCount}")
+    require(scheduler.switches == RichardsQueues.SWITCHES + tasks - Richards.NUMBER_OF_IDS, s"$queue: ${scheduler.switches} switches")
+  }
+
+  @Setup(Level.Invocation)
+  def build(): Unit = {
+    scheduler = new QueueScheduler(tasks, RunQueue(queue, tasks))
+    RichardsQueues.populate(scheduler, tasks)
+    scheduler.start()
+  }
+
+  @Benchmark
+  def schedule(): QueueScheduler = {
+    scheduler.schedule()
+    scheduler
+  }
+}
+
+object RichardsQueues {
+  import Richards._
+
+  /// The number of tasks run by Richards.run.
+  final val SWITCHES = 12982
+
+  /**
+   * Adds the tasks and packets of Richards.newScheduler to the scheduler, plus `tasks - 6` filler
+   * tasks with a packet each, with priorities spread evenly between the idle task and handler A,
+   * half of them above the worker. A filler runs once, when no task above it is runnable, and then
+   * stays suspended: the tasks of the benchmark run in the same order as without them. The tasks
+   * are added in order of priority, so the list of the scheduler stays ordered by priority. The
+   * scheduler needs room for `tasks` ids.
+   */
+  def populate(scheduler: Scheduler, tasks: Int): Scheduler = {
+    val fillers = tasks - NUMBER_OF_IDS
+    var f = 0
+    // priorities 1 to 1999, none equal to the worker's
+    def priority(f: Int): Int = {
+      val p = 1 + (f * 1998L / fillers).toInt
+      if (p >= 1000) p + 1 else p
+    }
+    def fill(below: Int): Unit =
+      while (f < fillers && priority(f) < below) {
+        val id = NUMBER_OF_IDS + f
+        scheduler.addTask(id, priority(f), new Packet(null, id, KIND_WORK), new FillerTask(scheduler))
+        f += 1
+      }
+
+    scheduler.addIdleTask(ID_IDLE, 0, null, COUNT)
+    fill(1000)
+
+    var queue = new Packet(null, ID_WORKER, KIND_WORK)
+    queue = new Packet(queue, ID_WORKER, KIND_WORK)
+    scheduler.addWorkerTask(ID_WORKER, 1000, queue)
+    fill(2000)
+
+    queue = new Packet(null, ID_DEVICE_A, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_A, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_A, KIND_DEVICE)
+    scheduler.addHandlerTask(ID_HANDLER_A, 2000, queue)
+
+    queue = new Packet(null, ID_DEVICE_B, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_B, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_B, KIND_DEVICE)
+    scheduler.addHandlerTask(ID_HANDLER_B, 3000, queue)
+
+    scheduler.addDeviceTask(ID_DEVICE_A, 4000, null)
+
+    scheduler.addDeviceTask(ID_DEVICE_B, 5000, null)
+
+    scheduler
+  }
+}
+
+/**
+ * A Scheduler that finds the next task to run with a RunQueue. The run queue is told about every
+ * change that may make a task runnable or not (see TaskControlBlock.isHeldOrSuspended).
+ *
+ * The Scheduler continues with the task returned by the last one, or the first runnable task
+ * after it in the list. A task returns a task with a higher priority whenever it makes one
+ * runnable, so that is always the runnable task with the highest priority, and a run queue can
+ * look for that instead.
+ */
+class QueueScheduler(ids: Int, runQueue: RunQueue) extends Scheduler(ids) {
+
+  /// The number of times a task was run.
+  var switches = 0
+
+  /// Initializes the run queue, call after adding all tasks.
+  def start() {
+    runQueue.init(blocks)
+  }
+
+  override def schedule() {
+    currentTcb = runQueue.next(list)
+    while (currentTcb != null) {
+      currentId = currentTcb.id
+      switches += 1
+      currentTcb = runQueue.next(currentTcb.run())
+    }
+  }
+
+  override def release(id: Int): TaskControlBlock = {
+    val next = super.release(id)
+    if (blocks(id) != null) runQueue.update(blocks(id))
+    next
+  }
+
+  override def holdCurrent(): TaskControlBlock = {
+    val held = currentTcb
+    val next = super.holdCurrent()
+    runQueue.update(held)
+    next
+  }
+
+  override def suspendCurrent(): TaskControlBlock = {
+    val next = super.suspendCurrent()
+    runQueue.update(currentTcb)
+    next
+  }
+
+  override def queue(packet: Packet): TaskControlBlock = {
+    val t = blocks(packet.id)
+    val next = super.queue(packet)
+    if (t != null) runQueue.update(t)
+    next
+  }
+}
+
+abstract class RunQueue {
+  /// Starts with the given blocks, indexed by id; all ids are used.
+  def init(blocks: Array[TaskControlBlock]): Unit
+
+  /// Adds or removes a block, depending on whether it is runnable now.
+  def update(tcb: TaskControlBlock): Unit
+
+  /// The block to run after the current one returned `returned`, or null if there is none.
+  def next(returned: TaskControlBlock): TaskControlBlock
+}
+
+object RunQueue {
+  def apply(name: String, tasks: Int): RunQueue = name match {
+    case "list" => new ListRunQueue
+    case "binary" => new BinaryHeapRunQueue(tasks)
+    case "pairing" => new PairingHeapRunQueue(tasks)
+    case "bucket" => new BucketRunQueue(tasks)
+  }
+}
+
+/** Scans the list of the Scheduler, like Scheduler.schedule. */
+final class ListRunQueue extends RunQueue {
+  def init(blocks: Array[TaskControlBlock]): Unit = ()
+
+  def update(tcb: TaskControlBlock): Unit = ()
+
+  def next(returned: TaskControlBlock): TaskControlBlock = {
+    var t = returned
+    while (t != null && t.isHeldOrSuspended())
+      t = t.link
+    t
+  }
+}
+
+/** A binary max-heap of the runnable blocks, ordered by priority. */
+final class BinaryHeapRunQueue(ids: Int) extends RunQueue {
+  private val heap = new Array[TaskControlBlock](ids)
+  private var size = 0
+  // the index of each block (by id) in the heap, -1 if it is not runnable
+  private val index = Array.fill(ids)(-1)
+
+  def init(blocks: Array[TaskControlBlock]): Unit = blocks.foreach(update)
+
+  def update(tcb: TaskControlBlock): Unit = {
+    val i = index(tcb.id)
+    if (!tcb.isHeldOrSuspended()) {
+      if (i < 0) {
+        size += 1
+        siftUp(size - 1, tcb)
+      }
+    } else if (i >= 0) {
+      size -= 1
+      val last = heap(size)
+      heap(size) = null
+      index(tcb.id) = -1
+      if (i < size) {
+        if (last.priority > tcb.priority) siftUp(i, last)
+        else siftDown(i, last)
+      }
+    }
+  }
+
+  def next(returned: TaskControlBlock): TaskControlBlock = heap(0)
+
+  private def place(i: Int, t: TaskControlBlock): Unit = {
+    heap(i) = t
+    index(t.id) = i
+  }
+
+  private def siftUp(start: Int, t: TaskControlBlock): Unit = {
+    var i = start
+    while (i > 0 && heap((i - 1) >>> 1).priority < t.priority) {
+      place(i, heap((i - 1) >>> 1))
+      i = (i - 1) >>> 1
+    }
+    place(i, t)
+  }
+
+  private def siftDown(start: Int, t: TaskControlBlock): Unit = {
+    var i = start
+    var done = false
+    while (!done) {
+      var c = 2 * i + 1
+      if (c + 1 < size && heap(c + 1).priority > heap(c).priority) c += 1
+      if (c < size && heap(c).priority > t.priority) {
+        place(i, heap(c))
+        i = c
+      } else {
+        done = true
+      }
+    }
+    place(i, t)
+  }
+}
+
+/**
+ * A pairing max-heap of the runnable blocks, ordered by priority. The nodes are the ids of the
+ * blocks, the links are kept in Int arrays indexed by id (-1 for none).
+ */
+final class PairingHeapRunQueue(ids: Int) extends RunQueue {
+  private var blocks: Array[TaskControlBlock] = _
+  private val child = Array.fill(ids)(-1)
+  private val sibling = Array.fill(ids)(-1)
+  // the parent of a leftmost child, the left sibling of all other nodes
+  private val prev = Array.fill(ids)(-1)
+  private val inHeap = new Array[Boolean](ids)
+  private var root = -1
+  private val pairs = new Array[Int](ids)
+
+  def init(blocks: Array[TaskControlBlock]): Unit = {
+    this.blocks = blocks
+    blocks.foreach(update)
+  }
+
+  def update(tcb: TaskControlBlock): Unit = {
+    val x = tcb.id
+    if (!tcb.isHeldOrSuspended()) {
+      if (!inHeap(x)) {
+        inHeap(x) = true
+        root = meld(root, x)
+      }
+    } else if (inHeap(x)) {
+      inHeap(x) = false
+      if (x == root) {
+        root = combine(child(x))
+      } else {
+        // cut x out of its parent's children, then meld its children back in
+        val p = prev(x)
+        if (child(p) == x) child(p) = sibling(x) else sibling(p) = sibling(x)
+        if (sibling(x) >= 0) prev(sibling(x)) = p
+        root = meld(root, combine(child(x)))
+      }
+      child(x) = -1
+      sibling(x) = -1
+      prev(x) = -1
+    }
+  }
+
+  def next(returned: TaskControlBlock): TaskControlBlock = if (root < 0) null else blocks(root)
+
+  /// Melds two heaps whose roots have no siblings.
+  private def meld(a: Int, b: Int): Int = {
+    if (a < 0) b
+    else if (b < 0) a
+    else if (blocks(a).priority >= blocks(b).priority) { link(a, b); a }
+    else { link(b, a); b }
+  }
+
+  /// Makes `c` the leftmost child of `p`.
+  private def link(p: Int, c: Int): Unit = {
+    val first = child(p)
+    sibling(c) = first
+    if (first >= 0) prev(first) = c
+    prev(c) = p
+    child(p) = c
+  }
+
+  /// Melds a list of siblings into one heap: pairwise from left to right, then from right to left.
+  private def combine(first: Int): Int = {
+    var n = 0
+    var x = first
+    while (x >= 0) {
+      val a = x
+      val b = sibling(a)
+      x = if (b >= 0) sibling(b) else -1
+      detach(a)
+      if (b >= 0) detach(b)
+      pairs(n) = meld(a, b)
+      n += 1
+    }
+    var h = -1
+    while (n > 0) {
+      n -= 1
+      h = meld(pairs(n), h)
+    }
+    h
+  }
+
+  private def detach(x: Int): Unit = {
+    sibling(x) = -1
+    prev(x) = -1
+  }
+}
+
+/**
+ * The blocks in an array indexed by the rank of their priority, with a bitmap of the runnable
+ * ones and a summary bitmap of the non-empty words, so the highest runnable block is found with
+ * two scans of at most ids / 4096 words.
+ */
+final class BucketRunQueue(ids: Int) extends RunQueue {
+  private val byRank = new Array[TaskControlBlock](ids)
+  private val rank = new Array[Int](ids)
+  private val bits = new Array[Long]((ids + 63) >> 6)
+  private val summary = new Array[Long]((bits.length + 63) >> 6)
+
+  def init(blocks: Array[TaskControlBlock]): Unit = {
+    val sorted = blocks.sortBy(_.priority)
+    for (r <- sorted.indices) {
+      byRank(r) = sorted(r)
+      rank(sorted(r).id) = r
+    }
+    blocks.foreach(update)
+  }
+
+  def update(tcb: TaskControlBlock): Unit = {
+    val r = rank(tcb.id)
+    val w = r >> 6
+    if (!tcb.isHeldOrSuspended()) {
+      bits(w) |= 1L << r
+      summary(w >> 6) |= 1L << w
+    } else {
+      bits(w) &= ~(1L << r)
+      if (bits(w) == 0) summary(w >> 6) &= ~(1L << w)
+    }
+  }
+
+  def next(returned: TaskControlBlock): TaskControlBlock = {
+    var s = summary.length - 1
+    while (s >= 0 && summary(s) == 0)
+      s -= 1
+    if (s < 0) null
+    else {
+      val w = (s << 6) + 63 - java.lang.Long.numberOfLeadingZeros(summary(s))
+      byRank((w << 6) + 63 - java.lang.Long.numberOfLeadingZeros(bits(w)))
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package misc
+
+import java.util.concurrent._
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Richards with every task on its own thread. The tasks only communicate by handing packets to
+ * each other over SynchronousQueues (see ThreadedScheduler), which also pass control in the order
+ * of the cooperative Scheduler, so the runs end with the same queueCount and holdCount; but every
+ * handoff is a real context switch.
+ *
+ *   cooperative  Scheduler.schedule, as in Richards.run
+ *   platform     one thread of a fixed pool per task
+ *   virtual      one virtual thread per task (JDK 21, see SudokuBatch.newVirtualThreadPerTaskExecutor)
+ *
+ * The `handoffs` counter is the time per handoff (undefined for cooperative, which has none).
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 RichardsThreads'
+ *
+ * and on JDK 21, where the JMH of this project needs java.io opened, in sbt and in the forks:
+ *
+ * sbt -J--add-opens=java.base/java.io=ALL-UNNAMED clean 'jmh:run -f 1 -i 5 -wi 5 -p runner=virtual,platform -jvmArgsAppend --add-opens=java.base/java.io=ALL-UNNAMED RichardsThreads'
+ *
+ * A run sends 20557 messages between the task threads. On a single core machine, JDK 8:
+ *
+ * [info] Benchmark                        (runner)  Mode  Cnt     Score    Error  Units
+ * [info] RichardsThreads.run           cooperative  avgt    5     0.154 ±  0.004  ms/op
+ * [info] RichardsThreads.run:handoffs  cooperative  avgt    5  Infinity           ms/op
+ * [info] RichardsThreads.run              platform  avgt    5    80.378 ± 17.377  ms/op
+ * [info] RichardsThreads.run:handoffs     platform  avgt    5     0.004 ±  0.001  ms/op
+ *
+ * JDK 21:
+ *
+ * [info] Benchmark                     (runner)  Mode  Cnt   Score    Error  Units
+ * [info] RichardsThreads.run            virtual  avgt    5  17.886 ±  8.378  ms/op
+ * [info] RichardsThreads.run:handoffs   virtual  avgt    5   0.001 ±  0.001  ms/op
+ * [info] RichardsThreads.run           platform  avgt    5  43.672 ±  7.863  ms/op
+ * [info] RichardsThreads.run:handoffs  platform  avgt    5   0.002 ±  0.001  ms/op
+ *
+ * A handoff between platform threads costs 2-4 us, between virtual threads under 1 us, where the
+ * cooperative scheduler switches tasks in a few ns.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+class RichardsThreads {
+  import Richards._
+
+  @Param(Array("cooperative", "platform"))
+  var runner: String = _
+
+  var executor: ExecutorService = _
+
+  @Setup
+  def setup(): Unit = {
+    executor = runner match {
+      case "cooperative" => null
+      case "platform" => Executors.newFixedThreadPool(NUMBER_OF_IDS)
+      case "virtual" => SudokuBatch.newVirtualThreadPerTaskExecutor()
+    }
+    val (queueCount, holdCount) = run(new RichardsThreads.Counters)
+    require(queueCount == EXPECTED_QUEUE_COUNT && holdCount == EXPECTED_HOLD_COUNT,
+      s"$runner: queueCount $queueCount, holdCount $holdCount")
+  }
+
+  @TearDown
+  def tearDown(): Unit = if (executor != null) executor.shutdown()
+
+  /// Returns queueCount and holdCount.
+  @Benchmark
+  def run(counters: RichardsThreads.Counters): (Int, Int) =
+    if (executor == null) {
+      val scheduler = newScheduler()
+      scheduler.schedule()
+      (scheduler.queueCount, scheduler.holdCount)
+    } else {
+      val threaded = new ThreadedScheduler(executor)
+      threaded.schedule()
+      counters.handoffs += threaded.handoffs
+      (threaded.queueCount, threaded.holdCount)
+    }
+}
+
+object RichardsThreads {
+  @AuxCounters
+  @State(Scope.Thread)
+  class Counters {
+    var handoffs: Long = _
+
+    @Setup(Level.Iteration)
+    def clean(): Unit = handoffs = 0
+  }
+}
+
+/**
+ * The tasks and packets of Richards.newScheduler, each task on its own thread of `executor`, which
+ * needs a thread for every task. A task thread only sees its own task control block: the tasks
+ * exchange packets over handoff queues, one inbox per task, and every message passes control with
+ * it. `queue` sends the packet to the inbox of its task, which keeps control if its work list was
+ * empty and it has the higher priority, and otherwise sends it back; `release` works the same way.
+ * A task that holds or suspends itself passes control to the next lower priority task, which runs
+ * if it can and passes it on otherwise, like the scan of Scheduler.schedule.
+ */
+final class ThreadedScheduler(executor: Executor) {
+  import Richards._
+  import ThreadedScheduler._
+
+  private val threads = new Array[TaskThread](NUMBER_OF_IDS)
+  private val done = new CompletableFuture[Void]()
+
+  // the highest priority task, the others linked by `below` like the blocks of Scheduler.list
+  private var list: TaskThread = null
+
+  private def task(id: Int): TaskThread = {
+    list = new TaskThread(id, list)
+    threads(id) = list
+    list
+  }
+
+  task(ID_IDLE).addIdleTask(ID_IDLE, 0, null, COUNT)
+
+  {
+    var queue = new Packet(null, ID_WORKER, KIND_WORK)
+    queue = new Packet(queue, ID_WORKER, KIND_WORK)
+    task(ID_WORKER).addWorkerTask(ID_WORKER, 1000, queue)
+
+    queue = new Packet(null, ID_DEVICE_A, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_A, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_A, KIND_DEVICE)
+    task(ID_HANDLER_A).addHandlerTask(ID_HANDLER_A, 2000, queue)
+
+    queue = new Packet(null, ID_DEVICE_B, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_B, KIND_DEVICE)
+    queue = new Packet(queue, ID_DEVICE_B, KIND_DEVICE)
+    task(ID_HANDLER_B).addHandlerTask(ID_HANDLER_B, 3000, queue)
+  }
+
+  task(ID_DEVICE_A).addDeviceTask(ID_DEVICE_A, 4000, null)
+
+  task(ID_DEVICE_B).addDeviceTask(ID_DEVICE_B, 5000, null)
+
+  /// Execute the tasks on their threads, returns when no task is runnable.
+  def schedule(): Unit = {
+    for (t <- threads) executor.execute(t)
+    try {
+      list.inbox.put(RESUME)
+      done.get()
+    } finally for (t <- threads) t.inbox.put(STOP)
+  }
+
+  /// The counts of the tasks, valid after schedule.
+  def queueCount: Int = threads.map(_.queueCount).sum
+  def holdCount: Int = threads.map(_.holdCount).sum
+
+  /// The number of messages sent between the task threads, valid after schedule.
+  def handoffs: Int = threads.map(_.handoffs).sum
+
+  /**
+   * A scheduler for the one task with id `id`, with `below` the next lower priority task. The
+   * scheduler methods its task calls send messages to the other tasks.
+   */
+  private final class TaskThread(id: Int, below: TaskThread) extends Scheduler with Runnable {
+    val inbox = new SynchronousQueue[Packet]()
+    var priority = 0
+    var handoffs = 0
+
+    private val released = new Packet(null, id, KIND_RELEASE)
+
+    override def addTask(id: Int, priority: Int, queue: Packet, task: Task): Unit = {
+      super.addTask(id, priority, queue, task)
+      currentId = id
+      this.priority = priority
+    }
+
+    override def queue(packet: Packet): TaskControlBlock = {
+      val to = threads(packet.id)
+      queueCount += 1
+      packet.link = null
+      packet.id = id
+      send(to, packet)
+      SENT
+    }
+
+    override def release(to: Int): TaskControlBlock = {
+      send(threads(to), released)
+      SENT
+    }
+
+    private def send(to: TaskThread, packet: Packet): Unit = {
+      handoffs += 1
+      to.inbox.put(packet)
+    }
+
+    /// Runs the task for as long as it keeps control and can run, then passes control on.
+    private def resume(): Unit = {
+      var next = currentTcb
+      while (next ne SENT) {
+        if (currentTcb.isHeldOrSuspended()) {
+          if (below == null) done.complete(null)
+          else send(below, RESUME)
+          next = SENT
+        } else next = currentTcb.run()
+      }
+    }
+
+    /// Keeps control if this task has a higher priority than `from`, otherwise sends it back.
+    private def preempt(from: TaskThread): Unit =
+      if (priority > from.priority) resume()
+      else send(from, RESUME)
+
+    private def receive(packet: Packet): Unit = packet.kind match {
+      case KIND_RESUME => resume()
+      case KIND_RELEASE =>
+        currentTcb.markAsNotHeld()
+        preempt(threads(packet.id))
+      case _ =>
+        val from = threads(packet.id)
+        if (currentTcb.queue == null) {
+          currentTcb.queue = packet
+          currentTcb.markAsRunnable()
+          preempt(from)
+        } else {
+          currentTcb.queue = packet.addTo(currentTcb.queue)
+          send(from, RESUME)
+        }
+    }
+
+    def run(): Unit = {
+      var packet = inbox.take()
+      while (packet ne STOP) {
+        try receive(packet)
+        catch {
+          case t: Throwable => done.completeExceptionally(t)
+        }
+        packet = inbox.take()
+      }
+    }
+  }
+}
+
+object ThreadedScheduler {
+  /// The kinds of the messages that are not packets of the tasks.
+  final val KIND_RESUME = 2
+  final val KIND_RELEASE = 3
+  final val KIND_STOP = 4
+
+  private val RESUME = new Packet(null, -1, KIND_RESUME)
+  private val STOP = new Packet(null, -1, KIND_STOP)
+
+  /// Returned by the scheduler methods that passed control to another task.
+  private val SENT = new TaskControlBlock(null, -1, 0, null, null)
+}
@@ -0,0 +1,108 @@
+package misc
+
+import java.util.concurrent._
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Independent Richards runs on several threads; every run allocates its own Scheduler, tasks and
+ * packets. The score is the total number of runs per second of all threads, divide it by the
+ * number of threads for the throughput per core.
+ *
+ *   run         one run per op on every JMH thread, set the number of threads with -t
+ *   runNoTlab   the same with -XX:-UseTLAB: threads allocate from the shared eden instead of their
+ *               own buffers, so the objects of different schedulers end up next to each other,
+ *               possibly in the same cache line (false sharing)
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -t 4 RichardsThroughput'
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+class RichardsThroughput {
+
+  @Benchmark
+  def run(): Scheduler = RichardsThroughput.run()
+
+  @Benchmark
+  @Fork(jvmArgsAppend = Array("-XX:-UseTLAB"))
+  def runNoTlab(): Scheduler = RichardsThroughput.run()
+}
+
+object RichardsThroughput {
+  def run(): Scheduler = {
+    val scheduler = Richards.newScheduler()
+    scheduler.schedule()
+    scheduler
+  }
+}
+
+/**
+ * Like RichardsThroughput, but driven by a fixed pool of `threads` threads: an op runs BATCH
+ * schedulers on every pool thread. The `runs` counter reports the Richards runs per second.
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -p threads=1,2,4,8 RichardsPool'
+ *
+ * On a single core machine all variants run 5900-7300 Richards per second in total, with or
+ * without TLABs; the cache effects need more cores to show.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+class RichardsPool {
+  import RichardsPool._
+
+  @Param(Array("1", "2", "4", "8"))
+  var threads: Int = _
+
+  var pool: ExecutorService = _
+  var tasks: java.util.List[Callable[Scheduler]] = _
+
+  @Setup
+  def setup(): Unit = {
+    pool = Executors.newFixedThreadPool(threads)
+    tasks = java.util.Collections.nCopies(threads, new Callable[Scheduler] {
+      def call(): Scheduler = {
+        var last: Scheduler = null
+        var i = 0
+        while (i < BATCH) {
+          last = RichardsThroughput.run()
+          i += 1
+        }
+        last
+      }
+    })
+  }
+
+  @TearDown
+  def tearDown(): Unit = pool.shutdown()
+
+  @Benchmark
+  def run(counters: Counters): Unit = runBatches(counters)
+
+  @Benchmark
+  @Fork(jvmArgsAppend = Array("-XX:-UseTLAB"))
+  def runNoTlab(counters: Counters): Unit = runBatches(counters)
+
+  def runBatches(counters: Counters): Unit = {
+    val results = pool.invokeAll(tasks)
+    for (i <- 0 until results.size) {
+      val scheduler = results.get(i).get
+      require(scheduler.queueCount == Richards.EXPECTED_QUEUE_COUNT && scheduler.holdCount == Richards.EXPECTED_HOLD_COUNT)
+    }
+    counters.runs += threads * BATCH
+  }
+}
+
+object RichardsPool {
+  final val BATCH = 100
+
+  @AuxCounters
+  @State(Scope.Thread)
+  class Counters {
+    var runs: Long = _
+
+    @Setup(Level.Iteration)
+    def clean(): Unit = runs = 0
+  }
+}
@@ -0,0 +1,151 @@
+package misc
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Solves a corpus of independent puzzles (see SudokuCorpus) with BitSolver on an executor. One op
+ * is one batch of `batchSize` puzzles; the `puzzles` counter reports the puzzles per second.
+ *
+ *   fixed     a fixed thread pool, one task per puzzle
+ *   forkjoin  a ForkJoinPool recursively splitting the batch
+ *   virtual   one virtual thread per puzzle, `threads` sets the number of carrier threads.
+ *             Needs JDK 21 (-p executor=virtual), the executor is looked up reflectively so the
+ *             project builds on JDK 8.
+ *
+ * The solvers come from a pool shared by all tasks, so every executor reuses the same few
+ * BitSolvers, also the virtual one that starts a new thread per puzzle.
+ *
+ * `latency` samples single puzzles submitted to the executor and awaited, solve and dispatch, to
+ * see how single solves degrade as the threads scale. Run it with as many benchmark threads (-t)
+ * as puzzles should be in flight.
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -p threads=1,2,4,8 SudokuBatch.solve'
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -t 4 -p threads=1,2,4,8 SudokuBatch.latency'
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+class SudokuBatch {
+
+  @Param(Array("fixed", "forkjoin"))
+  var executor: String = _
+
+  @Param(Array("1", "2", "4", "8"))
+  var threads: Int = _
+
+  @Param(Array("10000"))
+  var batchSize: Int = _
+
+  @Param(Array("30"))
+  var givens: Int = _
+
+  var puzzles: Array[String] = _
+  val next = new AtomicInteger()
+  val failures = new AtomicInteger()
+
+  var pool: ExecutorService = _
+  var forkJoinPool: ForkJoinPool = _
+
+  val solvers = new ConcurrentLinkedQueue[BitSolver]
+
+  @Setup
+  def setup(): Unit = {
+    puzzles = SudokuCorpus.generate(batchSize, givens)
+    executor match {
+      case "fixed" =>
+        pool = Executors.newFixedThreadPool(threads)
+      case "forkjoin" =>
+        forkJoinPool = new ForkJoinPool(threads)
+      case "virtual" =>
+        // only has an effect if no virtual thread was started before, JMH forks a new JVM per trial
+        System.setProperty("jdk.virtualThreadScheduler.parallelism", threads.toString)
+        pool = SudokuBatch.newVirtualThreadPerTaskExecutor()
+    }
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    if (pool != null) pool.shutdown()
+    if (forkJoinPool != null) forkJoinPool.shutdown()
+    require(failures.get == 0, s"${failures.get} puzzles were not solved")
+  }
+
+  def solveOne(i: Int): Unit = {
+    val polled = solvers.poll()
+    val solver = if (polled != null) polled else new BitSolver
+    if (!solver.solve(puzzles(i)))
+      failures.incrementAndGet()
+    solvers.offer(solver)
+  }
+
+  final class SolveRange(from: Int, to: Int) extends RecursiveAction {
+    def compute(): Unit = {
+      if (to - from <= SudokuBatch.GRAIN) {
+        var i = from
+        while (i < to) {
+          solveOne(i)
+          i += 1
+        }
+      } else {
+        val mid = (from + to) >>> 1
+        ForkJoinTask.invokeAll(new SolveRange(from, mid), new SolveRange(mid, to))
+      }
+    }
+  }
+
+  @Benchmark
+  def solve(counters: SudokuBatch.Counters): Unit = {
+    if (forkJoinPool != null) {
+      forkJoinPool.invoke(new SolveRange(0, puzzles.length))
+    } else {
+      val done = new CountDownLatch(puzzles.length)
+      var i = 0
+      while (i < puzzles.length) {
+        val puzzle = i
+        pool.execute(new Runnable {
+          def run(): Unit = {
+            solveOne(puzzle)
+            done.countDown()
+          }
+        })
+        i += 1
+      }
+      done.await()
+    }
+    counters.puzzles += puzzles.length
+  }
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SampleTime))
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  def latency(): Unit = {
+    val puzzle = (next.getAndIncrement() & Int.MaxValue) % puzzles.length
+    val task = new Callable[Unit] {
+      def call(): Unit = solveOne(puzzle)
+    }
+    if (forkJoinPool != null) forkJoinPool.submit(task).get()
+    else pool.submit(task).get()
+  }
+}
+
+object SudokuBatch {
+  final val GRAIN = 16
+
+  @AuxCounters
+  @State(Scope.Thread)
+  class Counters {
+    var puzzles: Long = _
+
+    @Setup(Level.Iteration)
+    def clean(): Unit = puzzles = 0
+  }
+
+  def newVirtualThreadPerTaskExecutor(): ExecutorService =
+    try classOf[Executors].getMethod("newVirtualThreadPerTaskExecutor").invoke(null).asInstanceOf[ExecutorService]
+    catch {
+      case _: NoSuchMethodException => throw new UnsupportedOperationException("virtual threads need JDK 21 or later")
+    }
+}
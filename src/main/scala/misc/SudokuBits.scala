@@ -0,0 +1,303 @@
+package misc
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+/**
+ * Head to head comparison of the string based solver in Sudoku with BitSolver, an engine using the
+ * same algorithm (propagation + depth-first search choosing the square with the fewest candidates)
+ * on 81 candidate bitmasks with precomputed peer / unit index tables and an undo trail.
+ *
+ * sbt clean 'jmh:run -f 1 -i 2 -wi 2 -t 1 -prof gc SudokuBits'
+ *
+ * [info] SudokuBits.bits                        grid1  avgt    2       57.367   us/op
+ * [info] SudokuBits.bits:·gc.alloc.rate.norm    grid1  avgt    2        0.025    B/op
+ * [info] SudokuBits.bits                        grid2  avgt    2       32.792   us/op
+ * [info] SudokuBits.bits:·gc.alloc.rate.norm    grid2  avgt    2        0.017    B/op
+ * [info] SudokuBits.bits                        hard1  avgt    2   854958.948   us/op
+ * [info] SudokuBits.bits:·gc.alloc.rate.norm    hard1  avgt    2      216.000    B/op
+ * [info] SudokuBits.norvig                      grid1  avgt    2     1582.705   us/op
+ * [info] SudokuBits.norvig:·gc.alloc.rate.norm  grid1  avgt    2  1220395.290    B/op
+ * [info] SudokuBits.norvig                      grid2  avgt    2     2003.219   us/op
+ * [info] SudokuBits.norvig:·gc.alloc.rate.norm  grid2  avgt    2  1316386.896    B/op
+ * [info] SudokuBits.norvig                      hard1  avgt    2     3944.626   us/op
+ * [info] SudokuBits.norvig:·gc.alloc.rate.norm  hard1  avgt    2  1467589.100    B/op
+ *
+ * hard1 has many solutions and the search time depends mostly on luck in the order in which squares
+ * are tried. BitSolver breaks ties between squares by position, Sudoku by hash map iteration order,
+ * which happens to find a solution early.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+class SudokuBits {
+  import SudokuBits._
+
+  @Param(Array("grid1", "grid2", "hard1"))
+  var puzzle: String = _
+
+  var grid: String = _
+  val solver = new BitSolver
+
+  @Setup
+  def setup(): Unit = {
+    grid = puzzles(puzzle)._1
+    check(grid)
+  }
+
+  @Benchmark
+  def norvig(): Option[Sudoku.Grid] = Sudoku.solve(grid)
+
+  @Benchmark
+  def bits(): Boolean = solver.solve(grid)
+}
+
+object SudokuBits {
+  import Sudoku._
+
+  final val N = 81
+  final val ALL = 0x1ff
+
+  /** The 27 units as square indices (0 = A1, 1 = A2, ..., 80 = I9). */
+  val unitlist: Array[Array[Int]] = Sudoku.unitlist.map(_.map(index).toArray).toArray
+
+  /** For each square, the indices of the 3 units in `unitlist` that contain it. */
+  val units: Array[Array[Int]] = Array.tabulate(N)(s => unitlist.indices.filter(unitlist(_).contains(s)).toArray)
+
+  /** For each square, its 20 peers. */
+  val peers: Array[Array[Int]] = Array.tabulate(N)(s => squares.filter(p => Sudoku.peers(squares(s))(p)).map(index).toArray)
+
+  def index(square: String): Int = (square(0) - 'A') * 9 + (square(1) - '1')
+
+  val puzzles = Map(
+    "grid1" -> (grid1, grid1Solutions),
+    "grid2" -> (grid2, grid2Solutions),
+    "hard1" -> (hard1, hard1Solutions))
+
+  /** Checks that `solution` is a complete and valid grid that agrees with the givens of `grid`. */
+  def isSolution(grid: String, solution: String): Boolean = {
+    val givens = grid.filter(c => digits.contains(c) || "0.".contains(c))
+    solution.length == N &&
+      givens.zip(solution).forall { case (g, d) => !digits.contains(g) || g == d } &&
+      unitlist.forall(u => u.map(solution(_)).toSet == digits.toSet)
+  }
+
+  /**
+   * Solves the grid with both engines and checks the results against the known solutions. The
+   * engines may pick different branches first, so for puzzles with multiple solutions (hard1) any
+   * valid solution is accepted.
+   */
+  def check(grid: String): Unit = {
+    val known = puzzles.values.find(_._1 == grid).get._2
+    def ok(solution: String) = known.contains(solution) || known.length > 1 && isSolution(grid, solution)
+    val solver = new BitSolver
+    require(solver.solve(grid) && ok(solver.asString), s"BitSolver failed on $grid")
+    require(solve(grid).map(asString).exists(ok), s"Sudoku failed on $grid")
+  }
+
+  def test() {
+    require(unitlist.length == 27)
+    require(units.forall(_.length == 3))
+    require(peers.forall(_.length == 20))
+    require(peers(index("C2")).map(squares).toSet == Sudoku.peers("C2"))
+    check(grid1)
+    check(grid2)
+    check(hard1)
+    println("All tests pass")
+  }
+}
+
+/**
+ * A Sudoku solver keeping the candidates of each square as a bitmask in an Int array (bit d - 1 is
+ * set if digit d is possible). Instead of cloning the grid for every branch of the search, all
+ * changes are recorded on a trail and rolled back when a branch fails. A solver can be reused.
+ */
+final class BitSolver {
+  import SudokuBits._
+
+  val cells = new Array[Int](N)
+
+  // entries are (square << 16) | previous candidates. Every entry removes one candidate, so the
+  // trail cannot grow longer than the 729 initial candidates.
+  private val trail = new Array[Int](N * 9)
+  private var top = 0
+
+  /** The number of search nodes visited since the last `load`. */
+  var nodes = 0L
+
+  /**
+   * Sets up the grid, digits 1-9 are givens, '0' and '.' are empty squares and all other characters
+   * are ignored. Returns false if a contradiction is detected.
+   */
+  def load(grid: String): Boolean = {
+    java.util.Arrays.fill(cells, ALL)
+    top = 0
+    nodes = 0
+    var s = 0
+    var i = 0
+    while (i < grid.length && s < N) {
+      val c = grid.charAt(i)
+      if (c >= '1' && c <= '9') {
+        if (!assign(s, c - '1')) return false
+        s += 1
+      } else if (c == '0' || c == '.') {
+        s += 1
+      }
+      i += 1
+    }
+    top = 0
+    true
+  }
+
+  /**
+   * Like `load(grid: String)`, but reads the 81 squares of a puzzle from `buffer` at `offset`
+   * without creating a String. Every byte that is not a digit 1-9 is an empty square.
+   */
+  def load(buffer: java.nio.ByteBuffer, offset: Int): Boolean = {
+    java.util.Arrays.fill(cells, ALL)
+    top = 0
+    nodes = 0
+    var s = 0
+    while (s < N) {
+      val c = buffer.get(offset + s)
+      if (c >= '1' && c <= '9' && !assign(s, c - '1'))
+        return false
+      s += 1
+    }
+    top = 0
+    true
+  }
+
+  def solve(grid: String): Boolean = load(grid) && search()
+
+  /** Continue from a snapshot of the candidates of another solver, e.g. a branch of its search. */
+  def load(candidates: Array[Int]): Unit = {
+    System.arraycopy(candidates, 0, cells, 0, N)
+    top = 0
+    nodes = 0
+  }
+
+  // ################ Constraint Propagation ################
+
+  /** Eliminate all the other digits (except d) from square s and propagate. */
+  def assign(s: Int, d: Int): Boolean = {
+    var others = cells(s) & ~(1 << d)
+    while (others != 0) {
+      if (!eliminate(s, Integer.numberOfTrailingZeros(others)))
+        return false
+      others &= others - 1
+    }
+    true
+  }
+
+  /** Eliminate d from square s; propagate when values or places <= 2. */
+  def eliminate(s: Int, d: Int): Boolean = {
+    val bit = 1 << d
+    val old = cells(s)
+    if ((old & bit) == 0)
+      return true // Already eliminated
+
+    trail(top) = (s << 16) | old
+    top += 1
+    val now = old & ~bit
+    cells(s) = now
+
+    // (1) If a square s is reduced to one value d2, then eliminate d2 from the peers.
+    if (now == 0) {
+      return false // Contradiction: removed last value
+    } else if ((now & (now - 1)) == 0) {
+      val d2 = Integer.numberOfTrailingZeros(now)
+      val ps = peers(s)
+      var i = 0
+      while (i < ps.length) {
+        if (!eliminate(ps(i), d2))
+          return false
+        i += 1
+      }
+    }
+
+    // (2) If a unit u is reduced to only one place for a value d, then put it there.
+    val us = units(s)
+    var u = 0
+    while (u < us.length) {
+      val unit = unitlist(us(u))
+      var count = 0
+      var place = -1
+      var i = 0
+      while (i < unit.length && count < 2) {
+        if ((cells(unit(i)) & bit) != 0) {
+          count += 1
+          place = unit(i)
+        }
+        i += 1
+      }
+      if (count == 0)
+        return false // Contradiction: no place for d
+      if (count == 1 && !assign(place, d))
+        return false
+      u += 1
+    }
+
+    true
+  }
+
+  /** Undo all eliminations recorded after the given trail position. */
+  def undo(mark: Int): Unit = {
+    while (top > mark) {
+      top -= 1
+      val e = trail(top)
+      cells(e >>> 16) = e & 0xffff
+    }
+  }
+
+  def trailMark: Int = top
+
+  // ################ Search ################
+
+  /**
+   * Returns the unfilled square with the fewest candidates, or -1 if all squares are filled.
+   */
+  def choose(): Int = {
+    var s = -1
+    var min = 10
+    var i = 0
+    while (i < N && min > 2) {
+      val n = Integer.bitCount(cells(i))
+      if (n > 1 && n < min) {
+        min = n
+        s = i
+      }
+      i += 1
+    }
+    s
+  }
+
+  /** Using depth-first search and propagation, try all possible values. */
+  def search(): Boolean = {
+    nodes += 1
+    val s = choose()
+    if (s < 0)
+      return true // Solved!
+
+    var ds = cells(s)
+    while (ds != 0) {
+      val mark = top
+      if (assign(s, Integer.numberOfTrailingZeros(ds)) && search())
+        return true
+      undo(mark)
+      ds &= ds - 1
+    }
+    false
+  }
+
+  def asString: String = {
+    val b = new java.lang.StringBuilder(N)
+    var s = 0
+    while (s < N) {
+      val c = cells(s)
+      b.append(if ((c & (c - 1)) == 0) ('1' + Integer.numberOfTrailingZeros(c)).toChar else '.')
+      s += 1
+    }
+    b.toString
+  }
+}
@@ -0,0 +1,56 @@
+package misc
+
+import scala.util.Random
+
+/**
+ * Generates Sudoku puzzles for the batch benchmarks. Every puzzle is derived from the solution of
+ * Sudoku.grid1 by transformations that preserve validity (relabeling the digits, permuting bands,
+ * stacks, and the rows / columns within them, transposing), followed by blanking random squares.
+ * So every puzzle has at least one solution; with few givens it may have several.
+ *
+ * Puzzles are strings of 81 characters, '.' for empty squares, as in Sudoku.grid2.
+ */
+object SudokuCorpus {
+
+  /** Arto Inkala's "Everest" puzzle (2010), advertised as the hardest Sudoku for humans. */
+  val everest = "8..........36......7..9.2...5...7.......457.....1...3...1....68..85...1..9....4.."
+  val everestSolutions = List(
+    "812753649943682175675491283154237896369845721287169534521974368438526917796318452")
+
+  /** A deterministic corpus of `n` puzzles, each with `givens` given squares. */
+  def generate(n: Int, givens: Int, seed: Long = 81783902): Array[String] = {
+    val r = new Random(seed)
+    Array.fill(n)(puzzle(r, givens))
+  }
+
+  /** The `n` puzzles for which BitSolver visits the most search nodes, hardest first. */
+  def hardest(puzzles: Array[String], n: Int): Array[String] = {
+    val solver = new BitSolver
+    puzzles.sortBy { p => solver.solve(p); -solver.nodes }.take(n)
+  }
+
+  def puzzle(r: Random, givens: Int): String = {
+    val grid = shuffledSolution(r)
+    for (s <- r.shuffle((0 until 81).toList).drop(givens))
+      grid(s) = '.'
+    new String(grid)
+  }
+
+  def shuffledSolution(r: Random): Array[Char] = {
+    val solution = Sudoku.grid1Solutions.head
+    val digits = r.shuffle(Sudoku.digits.toList)
+    val rows = permutation(r)
+    val cols = permutation(r)
+    val transpose = r.nextBoolean()
+    Array.tabulate(81) { s =>
+      val row = rows(s / 9)
+      val col = cols(s % 9)
+      val src = if (transpose) col * 9 + row else row * 9 + col
+      digits(solution(src) - '1')
+    }
+  }
+
+  /** A random permutation of 0..8 that keeps groups of three (bands or stacks) together. */
+  def permutation(r: Random): Array[Int] =
+    r.shuffle(List(0, 1, 2)).flatMap(b => r.shuffle(List(0, 1, 2)).map(b * 3 + _)).toArray
+}
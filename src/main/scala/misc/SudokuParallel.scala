@@ -0,0 +1,127 @@
+package misc
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.{AtomicLong, AtomicReference}
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Parallel depth-first search within a single puzzle (see ParallelSearch). Compare the times for
+ * different values of `cutoff` and `threads` against cutoff 0 / 1 thread to get the speedup.
+ *
+ *   first  stops at the first solution, siblings are cancelled
+ *   all    enumerates solutions up to `limit` (hard1 has far too many to enumerate all of them)
+ *
+ * `corpus` is the hardest puzzle (most search nodes) of 10000 generated with SudokuCorpus.
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -p threads=1,2,4,8 -p cutoff=0,1,2,4 SudokuParallel'
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+class SudokuParallel {
+
+  @Param(Array("hard1", "everest", "corpus"))
+  var puzzle: String = _
+
+  @Param(Array("1", "2", "4", "8"))
+  var threads: Int = _
+
+  @Param(Array("0", "1", "2", "4"))
+  var cutoff: Int = _
+
+  @Param(Array("1000"))
+  var limit: Long = _
+
+  var grid: String = _
+  var pool: ForkJoinPool = _
+
+  @Setup
+  def setup(): Unit = {
+    grid = puzzle match {
+      case "hard1" => Sudoku.hard1
+      case "everest" => SudokuCorpus.everest
+      case "corpus" => SudokuCorpus.hardest(SudokuCorpus.generate(10000, 22), 1)(0)
+    }
+    pool = new ForkJoinPool(threads)
+    val solution = new ParallelSearch(cutoff, 1).run(pool, grid).firstSolution
+    require(solution != null && SudokuBits.isSolution(grid, solution), s"no valid solution for $grid")
+  }
+
+  @TearDown
+  def tearDown(): Unit = pool.shutdown()
+
+  @Benchmark
+  def first(): String = new ParallelSearch(cutoff, 1).run(pool, grid).firstSolution
+
+  @Benchmark
+  def all(): Long = new ParallelSearch(cutoff, limit).run(pool, grid).solutions
+}
+
+/**
+ * Searches the solutions of one puzzle on a ForkJoinPool. Up to depth `cutoff`, every candidate of
+ * the chosen square becomes a separate task working on a copy of the grid; below that, each task
+ * searches serially, backtracking on the trail of its BitSolver like BitSolver.search, but counting
+ * the solutions it finds. Once `limit` solutions are found, all remaining tasks stop at their next
+ * search node. A ParallelSearch is used for a single run.
+ */
+final class ParallelSearch(cutoff: Int, limit: Long) {
+  private val solution = new AtomicReference[String]
+  private val count = new AtomicLong
+
+  def run(pool: ForkJoinPool, grid: String): this.type = {
+    val root = new BitSolver
+    if (root.load(grid))
+      pool.invoke(new Branch(root.cells.clone, 0))
+    this
+  }
+
+  /** The first solution found, null if there is none. */
+  def firstSolution: String = solution.get
+
+  def solutions: Long = math.min(count.get, limit)
+
+  private def done = count.get >= limit
+
+  private final class Branch(candidates: Array[Int], depth: Int) extends RecursiveAction {
+    def compute(): Unit = {
+      val solver = new BitSolver
+      solver.load(candidates)
+      explore(solver, depth)
+    }
+  }
+
+  private def explore(solver: BitSolver, depth: Int): Unit = {
+    if (done)
+      return
+
+    val s = solver.choose()
+    if (s < 0) {
+      count.incrementAndGet()
+      solution.compareAndSet(null, solver.asString)
+      return
+    }
+
+    if (depth < cutoff) {
+      val branches = new java.util.ArrayList[Branch]()
+      var ds = solver.cells(s)
+      while (ds != 0) {
+        val mark = solver.trailMark
+        if (solver.assign(s, Integer.numberOfTrailingZeros(ds)))
+          branches.add(new Branch(solver.cells.clone, depth + 1))
+        solver.undo(mark)
+        ds &= ds - 1
+      }
+      ForkJoinTask.invokeAll(branches)
+    } else {
+      var ds = solver.cells(s)
+      while (ds != 0 && !done) {
+        val mark = solver.trailMark
+        if (solver.assign(s, Integer.numberOfTrailingZeros(ds)))
+          explore(solver, depth + 1)
+        solver.undo(mark)
+        ds &= ds - 1
+      }
+    }
+  }
+}
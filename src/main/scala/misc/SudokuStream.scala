@@ -0,0 +1,156 @@
+package misc
+
+import java.io.Closeable
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardOpenOption}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Streams puzzles from a memory-mapped corpus file (see MappedCorpus). The `puzzles` counter
+ * reports puzzles per second for each stage:
+ *
+ *   parse           decode the givens of every puzzle from the mapped file
+ *   parseGridValues the same from Strings through Sudoku.gridValues, for comparison
+ *   solve           load and solve every puzzle from a byte array on the heap, no file involved
+ *   pipeline        load and solve every puzzle straight from the mapped file
+ *
+ * By default a corpus of `size` puzzles is generated into a temporary file. Pass `-p corpus=<file>`
+ * to use an existing one. A freshly written file is in the page cache, so this does not measure the
+ * disk; drop the caches between iterations for that.
+ *
+ * sbt clean 'jmh:run -f 1 -i 5 -wi 5 -p size=100000 SudokuStream'
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+class SudokuStream {
+
+  @Param(Array(""))
+  var corpus: String = _
+
+  @Param(Array("100000"))
+  var size: Int = _
+
+  var path: Path = _
+  var mapped: MappedCorpus = _
+  var heap: ByteBuffer = _
+  val solver = new BitSolver
+  val givens = new Array[Byte](SudokuBits.N)
+
+  @Setup
+  def setup(): Unit = {
+    if (corpus.isEmpty) {
+      path = Files.createTempFile("sudoku", ".txt")
+      MappedCorpus.write(path, SudokuCorpus.generate(size, 30))
+    } else {
+      path = Paths.get(corpus)
+    }
+    mapped = new MappedCorpus(path)
+    heap = ByteBuffer.wrap(Files.readAllBytes(path))
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    mapped.close()
+    if (corpus.isEmpty) Files.delete(path)
+  }
+
+  @Benchmark
+  def parse(counters: SudokuBatch.Counters, bh: Blackhole): Unit = {
+    var i = 0
+    while (i < mapped.size) {
+      mapped.parse(i, givens)
+      bh.consume(givens)
+      i += 1
+    }
+    counters.puzzles += mapped.size
+  }
+
+  @Benchmark
+  def parseGridValues(counters: SudokuBatch.Counters, bh: Blackhole): Unit = {
+    val lines = Files.newBufferedReader(path, StandardCharsets.US_ASCII)
+    try {
+      var line = lines.readLine()
+      while (line != null) {
+        bh.consume(Sudoku.gridValues(line))
+        counters.puzzles += 1
+        line = lines.readLine()
+      }
+    } finally lines.close()
+  }
+
+  @Benchmark
+  def solve(counters: SudokuBatch.Counters): Unit = {
+    val n = heap.capacity / MappedCorpus.LINE
+    var i = 0
+    while (i < n) {
+      if (!(solver.load(heap, i * MappedCorpus.LINE) && solver.search()))
+        throw new IllegalStateException(s"puzzle $i not solved")
+      i += 1
+    }
+    counters.puzzles += n
+  }
+
+  @Benchmark
+  def pipeline(counters: SudokuBatch.Counters): Unit = {
+    var i = 0
+    while (i < mapped.size) {
+      if (!(mapped.load(i, solver) && solver.search()))
+        throw new IllegalStateException(s"puzzle $i not solved")
+      i += 1
+    }
+    counters.puzzles += mapped.size
+  }
+}
+
+/**
+ * A corpus file with one puzzle per line: 81 characters, digits for givens and '.' or '0' for
+ * empty squares, followed by '\n'. The file is memory-mapped and puzzles are decoded directly from
+ * the mapping, so reading a puzzle does not allocate. A single mapping is limited to 2 GB, that is
+ * about 26 million puzzles.
+ */
+final class MappedCorpus(path: Path) extends Closeable {
+  import MappedCorpus._
+
+  private val channel = FileChannel.open(path, StandardOpenOption.READ)
+  val buffer: MappedByteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size)
+
+  /** The number of puzzles in the file. */
+  val size: Int = (channel.size / LINE).toInt
+
+  /** Load puzzle `i` into the solver, see BitSolver.load. */
+  def load(i: Int, solver: BitSolver): Boolean = solver.load(buffer, i * LINE)
+
+  /** Decode the givens of puzzle `i` into `givens`, 1-9 for givens and 0 for empty squares. */
+  def parse(i: Int, givens: Array[Byte]): Unit = {
+    val offset = i * LINE
+    var s = 0
+    while (s < SudokuBits.N) {
+      val c = buffer.get(offset + s)
+      givens(s) = if (c >= '1' && c <= '9') (c - '0').toByte else 0
+      s += 1
+    }
+  }
+
+  def close(): Unit = channel.close()
+}
+
+object MappedCorpus {
+  final val LINE = 82
+
+  def write(path: Path, puzzles: Array[String]): Unit = {
+    val out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)
+    try {
+      for (p <- puzzles) {
+        require(p.length == SudokuBits.N, s"not a puzzle of 81 squares: $p")
+        out.write(p)
+        out.write('\n')
+      }
+    } finally out.close()
+  }
+}